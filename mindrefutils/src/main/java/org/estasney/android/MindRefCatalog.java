@@ -0,0 +1,271 @@
+package org.estasney.android;
+
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Catalog of the notes mirrored into App Storage, one record per note.
+ * <p>
+ * Kept current by listening to {@link MindRefRunner#mirrorDirectory}, so only notes the mirror
+ * writes are re-read for their title. The catalog is written to a single file under
+ * {@link MindRefRunner#METADATA_DIR_NAME} and read back with {@link #read}, letting the app list
+ * its notes at startup without walking App Storage.
+ */
+public class MindRefCatalog implements MindRefMirrorListener {
+    private static final String TAG = "MindRefCatalog";
+    public static final String CATALOG_FILE_NAME = "catalog.bin";
+    private static final int MAGIC = 0x4d524341;
+    private static final int VERSION = 1;
+    private static final int MAX_TITLE_LENGTH = 256;
+    /**
+     * Lines scanned for a heading before falling back to the first line
+     */
+    private static final int MAX_TITLE_LINES = 64;
+    private static final String[] DEFAULT_EXTENSIONS = {"md", "markdown", "txt"};
+
+    /**
+     * A single note
+     */
+    public static final class Entry {
+        /**
+         * Path relative to the App Storage root, '/' separated
+         */
+        public final String path;
+        /**
+         * First directory of the path, empty for notes at the root
+         */
+        public final String category;
+        public final String title;
+        public final long size;
+        public final long lastModified;
+
+        public Entry(String path, String category, String title, long size, long lastModified) {
+            this.path = path;
+            this.category = category;
+            this.title = title;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    // Both move to the root a staged mirror writes into
+    private Path root;
+    private Path catalogPath;
+    private final Set<String> extensions;
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+    private boolean dirty = false;
+
+    /**
+     * Open the catalog for an App Storage root, loading it from disk if present
+     *
+     * @param root - App Storage root
+     */
+    public MindRefCatalog(Path root) {
+        this(root, DEFAULT_EXTENSIONS);
+    }
+
+    /**
+     * @param root       - App Storage root
+     * @param extensions - File extensions (without dot) treated as notes
+     */
+    public MindRefCatalog(Path root, String... extensions) {
+        this.root = root;
+        this.catalogPath = catalogPath(root);
+        this.extensions = new HashSet<>();
+        for (String extension : extensions) {
+            this.extensions.add(extension.toLowerCase(Locale.ROOT));
+        }
+        try {
+            for (Entry entry : read(root)) {
+                entries.put(entry.path, entry);
+            }
+        } catch (IOException e) {
+            MindRefLog.w(TAG, "Discarding unreadable catalog: {}", e);
+            entries.clear();
+            dirty = true;
+        }
+    }
+
+    /**
+     * Read the catalog written by the last mirror
+     *
+     * @param root - App Storage root
+     * @return Entries sorted by path, empty if no catalog has been written
+     * @throws IOException - Thrown when the catalog exists but cannot be read
+     */
+    public static List<Entry> read(Path root) throws IOException {
+        Path catalogPath = catalogPath(root);
+        ArrayList<Entry> result = new ArrayList<>();
+        if (!Files.exists(catalogPath)) {
+            return result;
+        }
+        // One sequential read, then parse from memory
+        byte[] data = Files.readAllBytes(catalogPath);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unrecognized catalog format: " + catalogPath);
+            }
+            int count = in.readInt();
+            result.ensureCapacity(count);
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                String category = in.readUTF();
+                String title = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                result.add(new Entry(path, category, title, size, lastModified));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void onMirrorStarted(Path targetRoot) {
+        if (!targetRoot.equals(root)) {
+            root = targetRoot;
+            catalogPath = catalogPath(root);
+            dirty = true;
+        }
+    }
+
+    @Override
+    public synchronized void onFileMirrored(Path targetPath, @Nullable MindRefFileData srcFile, boolean changed) throws IOException {
+        String relativePath = relativize(targetPath);
+        if (!extensions.contains(MindRefFileUtils.getFileExt(relativePath))) {
+            return;
+        }
+        long lastModified = srcFile != null ? srcFile.lastModified : Files.getLastModifiedTime(targetPath).toMillis();
+        // An unchanged file may still have been written after the catalog was last saved
+        Entry known = entries.get(relativePath);
+        if (!changed && known != null && known.lastModified == lastModified) {
+            return;
+        }
+        entries.put(relativePath, new Entry(relativePath, category(relativePath), readTitle(targetPath),
+                Files.size(targetPath), lastModified));
+        dirty = true;
+    }
+
+    @Override
+    public synchronized void onPathRemoved(Path targetPath, boolean isDirectory) {
+        String relativePath = relativize(targetPath);
+        if (!isDirectory) {
+            dirty |= entries.remove(relativePath) != null;
+            return;
+        }
+        // Entries are sorted by path, so everything below the directory is contiguous
+        String prefix = relativePath + "/";
+        int before = entries.size();
+        entries.subMap(prefix, prefix + Character.MAX_VALUE).clear();
+        dirty |= entries.size() != before;
+    }
+
+    @Override
+    public synchronized void onCheckpoint() throws IOException {
+        if (dirty) {
+            save();
+        }
+    }
+
+    @Override
+    public void onMirrorFinished() throws IOException {
+        onCheckpoint();
+    }
+
+    /**
+     * @return Current entries, sorted by path
+     */
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Persist the catalog, replacing the previous file atomically
+     */
+    public synchronized void save() throws IOException {
+        MindRefFileUtils.ensureDirectoryExists(catalogPath.getParent().toFile());
+        Path tempPath = catalogPath.resolveSibling(CATALOG_FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                out.writeUTF(entry.path);
+                out.writeUTF(entry.category);
+                out.writeUTF(entry.title);
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+            }
+        }
+        Files.move(tempPath, catalogPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+        MindRefLog.d(TAG, "save - {} entries", entries.size());
+    }
+
+    private static Path catalogPath(Path root) {
+        return root.resolve(MindRefRunner.METADATA_DIR_NAME).resolve(CATALOG_FILE_NAME);
+    }
+
+    private String relativize(Path targetPath) {
+        return root.relativize(targetPath).toString().replace('\\', '/');
+    }
+
+    private static String category(String relativePath) {
+        int slash = relativePath.indexOf('/');
+        return slash < 0 ? "" : relativePath.substring(0, slash);
+    }
+
+    /**
+     * Title of a note: its first markdown heading, else its first non-blank line, else its file name
+     */
+    static String readTitle(Path notePath) throws IOException {
+        String firstLine = null;
+        try (BufferedReader reader = Files.newBufferedReader(notePath, StandardCharsets.UTF_8)) {
+            String line;
+            int lineCount = 0;
+            while ((line = reader.readLine()) != null && lineCount < MAX_TITLE_LINES) {
+                lineCount++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty()) {
+                    continue;
+                }
+                if (trimmed.startsWith("#")) {
+                    String heading = trimmed.replaceFirst("^#+\\s*", "");
+                    if (!heading.isEmpty()) {
+                        return truncate(heading);
+                    }
+                }
+                if (firstLine == null) {
+                    firstLine = trimmed;
+                }
+            }
+        } catch (IOException e) {
+            // Not valid UTF-8, fall back to the file name
+            MindRefLog.w(TAG, "readTitle - Could not read {}: {}", notePath, e);
+        }
+        if (firstLine != null) {
+            return truncate(firstLine);
+        }
+        return MindRefFileUtils.stripFileExt(notePath.getFileName().toString());
+    }
+
+    private static String truncate(String title) {
+        return title.length() > MAX_TITLE_LENGTH ? title.substring(0, MAX_TITLE_LENGTH) : title;
+    }
+}
@@ -0,0 +1,275 @@
+package org.estasney.android;
+
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Bounds the number of in-flight provider calls, adapting the bound to how the provider copes.
+ * <p>
+ * Local storage providers keep up with many concurrent reads, while cloud backed providers slow
+ * down and start failing. The limit follows additive-increase/multiplicative-decrease: each call
+ * that succeeds without latency rising above the observed baseline raises the limit by roughly
+ * one per window of calls, while a failure or a latency spike halves it. The limit always stays
+ * within the configured minimum and maximum.
+ * <p>
+ * Latency is normalized by the bytes a call transferred, when it reports them through its {@link Permit},
+ * so a few large files after many small ones don't read as overload. Calls that did no provider work
+ * return their slot without a sample.
+ */
+public class MindRefConcurrencyController {
+    private static final String TAG = "MindRefConcurrency";
+    /**
+     * Smoothed latency above this multiple of the baseline counts as overload
+     */
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double SMOOTHING = 0.2;
+    /**
+     * Baseline drifts up slowly so a provider that gets permanently slower is not punished forever
+     */
+    private static final double BASELINE_DRIFT = 1.01;
+    /**
+     * Bytes taking about as long to transfer as a call's fixed overhead. Latency is divided by
+     * 1 + bytes / this, so small files are compared as is and large ones by their throughput.
+     */
+    private static final double REFERENCE_BYTES = 256 * 1024;
+
+    private final Executor executor;
+    private final Object lock = new Object();
+    private int minLimit;
+    private int maxLimit;
+    private double limit;
+    private int inFlight = 0;
+    private double smoothedLatencyMs = -1;
+    private double baselineLatencyMs = -1;
+    private long lastDecreaseNanos;
+    private boolean decreased = false;
+
+    /**
+     * @param executor     - Executor calls submitted with {@link #submit} run on. Should not bound
+     *                     its thread count below maxLimit
+     * @param minLimit     - Lowest number of concurrent calls, at least 1
+     * @param maxLimit     - Highest number of concurrent calls
+     * @param initialLimit - Starting number of concurrent calls
+     */
+    public MindRefConcurrencyController(Executor executor, int minLimit, int maxLimit, int initialLimit) {
+        this.executor = executor;
+        setLimits(minLimit, maxLimit);
+        this.limit = clamp(initialLimit);
+    }
+
+    /**
+     * Change the bounds the limit adapts within
+     *
+     * @param minLimit - Lowest number of concurrent calls, at least 1
+     * @param maxLimit - Highest number of concurrent calls
+     */
+    public void setLimits(int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limits: min " + minLimit + ", max " + maxLimit);
+        }
+        synchronized (lock) {
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.limit = clamp(this.limit);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return Current number of calls allowed in flight
+     */
+    public int getLimit() {
+        synchronized (lock) {
+            return (int) limit;
+        }
+    }
+
+    /**
+     * Run a provider call on the calling thread once a slot is free
+     *
+     * @param call - Provider call
+     * @return Result of the call
+     * @throws Exception - Whatever the call throws
+     */
+    public <T> T call(Callable<T> call) throws Exception {
+        acquire();
+        return runAndRelease(call);
+    }
+
+    /**
+     * Run a provider call on the executor once a slot is free.
+     * Blocks the caller while the limit is reached, so a loop submitting calls is paced by the provider.
+     *
+     * @param call - Provider call
+     * @return Future of the call's result
+     * @throws InterruptedException - Interrupted while waiting for a slot
+     */
+    public <T> ListenableFuture<T> submit(Callable<T> call) throws InterruptedException {
+        return submit(call, true);
+    }
+
+    /**
+     * @param measured - true to release the slot once the call returns, false if the call releases it
+     */
+    private <T> ListenableFuture<T> submit(Callable<T> call, boolean measured) throws InterruptedException {
+        acquire();
+        ListenableFutureTask<T> task = ListenableFutureTask.create(measured ? () -> runAndRelease(call) : call);
+        try {
+            executor.execute(task);
+            return task;
+        } catch (RuntimeException e) {
+            // Rejected, the slot will never be released by the task
+            synchronized (lock) {
+                inFlight--;
+                lock.notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * A call holding its slot, for calls that release it before they return
+     */
+    public interface Task<T> {
+        T call(Permit permit) throws Exception;
+    }
+
+    /**
+     * Run a call on the executor once a slot is free, see {@link #submit(Callable)}. The call releases
+     * its slot through the permit as soon as it is done with the provider, so work it does afterwards
+     * neither holds a slot nor counts towards its latency. A slot not released on return is released
+     * then, as a failure if the call threw.
+     *
+     * @param task - Call, given its permit
+     * @return Future of the call's result
+     * @throws InterruptedException - Interrupted while waiting for a slot
+     */
+    public <T> ListenableFuture<T> submit(Task<T> task) throws InterruptedException {
+        return submit(() -> {
+            Permit permit = new Permit();
+            boolean success = false;
+            try {
+                T result = task.call(permit);
+                success = true;
+                return result;
+            } finally {
+                if (!permit.released) {
+                    permit.released = true;
+                    release(permit.startNanos, success, 0);
+                }
+            }
+        }, false);
+    }
+
+    /**
+     * A slot taken by a call, released once
+     */
+    public final class Permit {
+        private final long startNanos = System.nanoTime();
+        private boolean released = false;
+
+        private Permit() {
+        }
+
+        /**
+         * Release after a successful call
+         *
+         * @param bytes - Bytes the call transferred, its latency is normalized by them
+         */
+        public void release(long bytes) {
+            if (!released) {
+                released = true;
+                MindRefConcurrencyController.this.release(startNanos, true, bytes);
+            }
+        }
+
+        /**
+         * Release after a failure that suggests the provider is overloaded
+         */
+        public void releaseFailed() {
+            if (!released) {
+                released = true;
+                MindRefConcurrencyController.this.release(startNanos, false, 0);
+            }
+        }
+
+        /**
+         * Release without a latency sample, after a call that did no provider work or failed for
+         * reasons unrelated to load
+         */
+        public void releaseUnmeasured() {
+            if (!released) {
+                released = true;
+                synchronized (lock) {
+                    inFlight--;
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void acquire() throws InterruptedException {
+        synchronized (lock) {
+            while (inFlight >= (int) limit) {
+                lock.wait();
+            }
+            inFlight++;
+        }
+    }
+
+    private <T> T runAndRelease(Callable<T> call) throws Exception {
+        long startNanos = System.nanoTime();
+        boolean success = false;
+        try {
+            T result = call.call();
+            success = true;
+            return result;
+        } finally {
+            release(startNanos, success, 0);
+        }
+    }
+
+    private void release(long startNanos, boolean success, long bytes) {
+        long endNanos = System.nanoTime();
+        double latencyMs = (endNanos - startNanos) / 1_000_000.0 / (1 + Math.max(0, bytes) / REFERENCE_BYTES);
+        synchronized (lock) {
+            inFlight--;
+            if (smoothedLatencyMs < 0) {
+                smoothedLatencyMs = latencyMs;
+                baselineLatencyMs = latencyMs;
+            } else {
+                smoothedLatencyMs += SMOOTHING * (latencyMs - smoothedLatencyMs);
+                baselineLatencyMs = Math.min(baselineLatencyMs * BASELINE_DRIFT, smoothedLatencyMs);
+            }
+
+            boolean overloaded = !success || smoothedLatencyMs > baselineLatencyMs * LATENCY_TOLERANCE;
+            if (overloaded) {
+                // Calls started before the last decrease reflect the old limit, don't punish twice for them
+                if (!decreased || startNanos - lastDecreaseNanos > 0) {
+                    double previous = limit;
+                    limit = clamp(limit * DECREASE_FACTOR);
+                    lastDecreaseNanos = endNanos;
+                    decreased = true;
+                    if (success) {
+                        MindRefLog.d(TAG, "Decrease limit {} -> {}, latency {}ms", (int) previous, (int) limit, (long) smoothedLatencyMs);
+                    } else {
+                        MindRefLog.d(TAG, "Decrease limit {} -> {}, call failed", (int) previous, (int) limit);
+                    }
+                }
+            } else if (inFlight + 1 >= limit / 2) {
+                // Only grow while the limit is actually being used
+                limit = clamp(limit + 1.0 / limit);
+            }
+            lock.notifyAll();
+        }
+    }
+
+    private double clamp(double value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+}
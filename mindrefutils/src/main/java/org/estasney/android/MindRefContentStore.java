@@ -0,0 +1,348 @@
+package org.estasney.android;
+
+import android.content.ContentResolver;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Content addressed storage for mirrored files, so identical files are stored once.
+ * <p>
+ * Each distinct content is kept once under {@link MindRefRunner#METADATA_DIR_NAME}/objects, named by
+ * its size and SHA-256, and materialized at every mirrored path holding it by a hard link (or a copy
+ * where links are unsupported). A reference table maps each mirrored path to its object, so removing a
+ * stale path only deletes the object once nothing refers to it.
+ * <p>
+ * Storage Access Framework providers don't expose checksums, so content must be downloaded to be
+ * identified. A download is skipped only when the same document, at the same modification time and
+ * size, has been stored before, for example a document that was moved or whose mirrored copy was removed.
+ * <p>
+ * Hard linked paths share their bytes, so a file modified in place would change every duplicate.
+ * Notes, which the app edits in place, are therefore not deduplicated.
+ */
+public class MindRefContentStore implements MindRefMirrorListener {
+    private static final String TAG = "MindRefContentStore";
+    private static final MindRefLog.RateLimit FILE_LOG_LIMIT = new MindRefLog.RateLimit(20);
+    public static final String OBJECTS_DIR_NAME = "objects";
+    static final String REFS_FILE_NAME = "refs";
+    private static final String STAGING_PREFIX = "staging-";
+    private static final String[] DEFAULT_EXCLUDED_EXTENSIONS = {"md", "markdown", "txt"};
+
+    // Move to the root a staged mirror writes into
+    private volatile Path root;
+    private volatile Path objectsDir;
+    private volatile Path refsPath;
+    private final Set<String> excludedExtensions = new HashSet<>();
+    // relative path -> object key, sorted so a directory's paths are contiguous
+    private final TreeMap<String, String> refs = new TreeMap<>();
+    // object key -> number of paths referring to it
+    private final HashMap<String, Integer> refCounts = new HashMap<>();
+    // document identity -> object key
+    private final HashMap<String, String> documents = new HashMap<>();
+    private boolean dirty = false;
+
+    /**
+     * Open the store for an App Storage root, loading its reference table if present
+     *
+     * @param root - App Storage root
+     * @throws IOException - Thrown when the objects directory cannot be created
+     */
+    public MindRefContentStore(Path root) throws IOException {
+        this(root, DEFAULT_EXCLUDED_EXTENSIONS);
+    }
+
+    /**
+     * @param root               - App Storage root
+     * @param excludedExtensions - File extensions (without dot) never deduplicated
+     * @throws IOException - Thrown when the objects directory cannot be created
+     */
+    public MindRefContentStore(Path root, String... excludedExtensions) throws IOException {
+        this.root = root;
+        this.objectsDir = objectsDir(root);
+        this.refsPath = objectsDir.resolve(REFS_FILE_NAME);
+        for (String extension : excludedExtensions) {
+            this.excludedExtensions.add(extension.toLowerCase(Locale.ROOT));
+        }
+        MindRefFileUtils.ensureDirectoryExists(objectsDir.toFile());
+        load();
+    }
+
+    /**
+     * @param targetPath - Mirrored path
+     * @return true if the file at targetPath should be stored through this store
+     */
+    public boolean handles(Path targetPath) {
+        return !excludedExtensions.contains(MindRefFileUtils.getFileExt(targetPath.getFileName().toString()));
+    }
+
+    /**
+     * Mirror a file through the store. Nothing is done when the target already holds this version of
+     * the source. Linked paths share the modification time of their object, so this is decided from the
+     * reference table, falling back to {@link MindRefRunner#mirrorFile}'s timestamp comparison for paths
+     * the store has no reference for.
+     *
+     * @param srcFile         - File in External Storage
+     * @param targetPath      - Location in App Storage
+     * @param contentResolver - ContentResolver
+     * @return true if the file was written, false if it was already current
+     */
+    public boolean mirrorFile(MindRefFileData srcFile, Path targetPath, ContentResolver contentResolver) throws IOException {
+        return mirrorFile(srcFile, targetPath, () -> MindRefProviderException.openInputStream(contentResolver, srcFile.uri));
+    }
+
+    boolean mirrorFile(MindRefFileData srcFile, Path targetPath, ContentSource source) throws IOException {
+        String relativePath = relativize(targetPath);
+        String documentKey = documentKey(srcFile);
+
+        synchronized (this) {
+            String current = refs.get(relativePath);
+            if (current != null) {
+                if (current.equals(documents.get(documentKey)) && Files.exists(targetPath)) {
+                    return false;
+                }
+            } else if (Files.exists(targetPath) && srcFile.lastModified <= Files.getLastModifiedTime(targetPath).toMillis()) {
+                return false;
+            }
+            String known = documents.get(documentKey);
+            if (known != null && Files.exists(objectsDir.resolve(known))) {
+                MindRefLog.d(TAG, FILE_LOG_LIMIT, "mirrorFile - Reusing stored content for {}", relativePath);
+                materialize(known, relativePath, targetPath);
+                return true;
+            }
+        }
+
+        Path staging = objectsDir.resolve(STAGING_PREFIX + UUID.randomUUID());
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            long size;
+            try (InputStream inputStream = source.open()) {
+                if (inputStream == null) {
+                    throw new IOException("Provider returned no stream for " + srcFile.uri);
+                }
+                size = Files.copy(new DigestInputStream(inputStream, digest), staging);
+            }
+            String objectKey = size + "-" + toHex(digest.digest());
+            synchronized (this) {
+                Path objectPath = objectsDir.resolve(objectKey);
+                if (Files.exists(objectPath)) {
+                    MindRefLog.d(TAG, FILE_LOG_LIMIT, "mirrorFile - Duplicate content for {}", relativePath);
+                } else {
+                    Files.move(staging, objectPath, StandardCopyOption.ATOMIC_MOVE);
+                }
+                documents.put(documentKey, objectKey);
+                materialize(objectKey, relativePath, targetPath);
+            }
+            return true;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        } finally {
+            Files.deleteIfExists(staging);
+        }
+    }
+
+    /**
+     * Place an object at a mirrored path and take a reference to it. Caller holds the lock.
+     */
+    private void materialize(String objectKey, String relativePath, Path targetPath) throws IOException {
+        Path objectPath = objectsDir.resolve(objectKey);
+        // Moving a link over the same file does nothing, which would leave the partial file behind
+        if (!Files.exists(targetPath) || !Files.isSameFile(objectPath, targetPath)) {
+            Path partialPath = targetPath.resolveSibling(targetPath.getFileName() + MindRefRunner.PARTIAL_SUFFIX);
+            Files.deleteIfExists(partialPath);
+            try {
+                try {
+                    Files.createLink(partialPath, objectPath);
+                } catch (IOException | UnsupportedOperationException e) {
+                    MindRefLog.d(TAG, "materialize - Hard link unavailable, copying: {}", e);
+                    Files.copy(objectPath, partialPath);
+                }
+                Files.move(partialPath, targetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(partialPath);
+            }
+        }
+        String previous = refs.put(relativePath, objectKey);
+        if (!objectKey.equals(previous)) {
+            refCounts.merge(objectKey, 1, Integer::sum);
+            if (previous != null) {
+                release(previous);
+            }
+        }
+        dirty = true;
+    }
+
+    @Override
+    public synchronized void onMirrorStarted(Path targetRoot) throws IOException {
+        if (!targetRoot.equals(root)) {
+            root = targetRoot;
+            objectsDir = objectsDir(root);
+            refsPath = objectsDir.resolve(REFS_FILE_NAME);
+            MindRefFileUtils.ensureDirectoryExists(objectsDir.toFile());
+            dirty = true;
+        }
+    }
+
+    @Override
+    public void onFileMirrored(Path targetPath, MindRefFileData srcFile, boolean changed) {
+        // References are taken as files are materialized
+    }
+
+    @Override
+    public synchronized void onPathRemoved(Path targetPath, boolean isDirectory) throws IOException {
+        String relativePath = relativize(targetPath);
+        if (!isDirectory) {
+            String removed = refs.remove(relativePath);
+            if (removed != null) {
+                release(removed);
+                dirty = true;
+            }
+            return;
+        }
+        String prefix = relativePath + "/";
+        Map<String, String> removed = refs.subMap(prefix, prefix + Character.MAX_VALUE);
+        for (String objectKey : removed.values()) {
+            release(objectKey);
+        }
+        dirty |= !removed.isEmpty();
+        removed.clear();
+    }
+
+    @Override
+    public synchronized void onCheckpoint() throws IOException {
+        if (dirty) {
+            save();
+        }
+    }
+
+    @Override
+    public synchronized void onMirrorFinished() throws IOException {
+        collectGarbage();
+        onCheckpoint();
+    }
+
+    /**
+     * @return Number of distinct contents stored
+     */
+    public synchronized int objectCount() {
+        return refCounts.size();
+    }
+
+    /**
+     * Drop a path's reference to an object, deleting it once nothing refers to it. Documents still
+     * pointing at it are dropped by {@link #collectGarbage}, until then a download replaces it.
+     */
+    private void release(String objectKey) throws IOException {
+        Integer count = refCounts.get(objectKey);
+        if (count != null && count > 1) {
+            refCounts.put(objectKey, count - 1);
+            return;
+        }
+        refCounts.remove(objectKey);
+        MindRefLog.d(TAG, FILE_LOG_LIMIT, "Removing unreferenced content {}", objectKey);
+        Files.deleteIfExists(objectsDir.resolve(objectKey));
+    }
+
+    /**
+     * Remove objects and staging files nothing refers to, left by a mirror that was interrupted
+     */
+    private void collectGarbage() throws IOException {
+        Set<String> referenced = refCounts.keySet();
+        try (Stream<Path> objects = Files.list(objectsDir)) {
+            for (Path object : (Iterable<Path>) objects::iterator) {
+                String name = object.getFileName().toString();
+                if (name.equals(REFS_FILE_NAME) || name.startsWith(REFS_FILE_NAME + ".")) {
+                    continue;
+                }
+                if (!referenced.contains(name)) {
+                    MindRefLog.d(TAG, FILE_LOG_LIMIT, "collectGarbage - Removing {}", name);
+                    Files.deleteIfExists(object);
+                }
+            }
+        }
+        dirty |= documents.values().retainAll(referenced);
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(refsPath)) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(refsPath, StandardCharsets.UTF_8);
+        for (String line : lines) {
+            String[] fields = line.split("\\t", 3);
+            if (fields.length != 3) {
+                continue;
+            }
+            if (fields[0].equals("R")) {
+                if (refs.put(fields[1], fields[2]) == null) {
+                    refCounts.merge(fields[2], 1, Integer::sum);
+                }
+            } else if (fields[0].equals("D")) {
+                documents.put(fields[1], fields[2]);
+            }
+        }
+    }
+
+    private void save() throws IOException {
+        Path tempPath = refsPath.resolveSibling(REFS_FILE_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> ref : refs.entrySet()) {
+                writer.write("R\t" + ref.getKey() + "\t" + ref.getValue() + "\n");
+            }
+            for (Map.Entry<String, String> document : documents.entrySet()) {
+                writer.write("D\t" + document.getKey() + "\t" + document.getValue() + "\n");
+            }
+        }
+        Files.move(tempPath, refsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+
+    private static Path objectsDir(Path root) {
+        return root.resolve(MindRefRunner.METADATA_DIR_NAME).resolve(OBJECTS_DIR_NAME);
+    }
+
+    private String relativize(Path targetPath) {
+        return root.relativize(targetPath).toString().replace('\\', '/');
+    }
+
+    /**
+     * Identifies a version of a document, tabs and newlines are replaced to keep the table line based
+     */
+    private static String documentKey(MindRefFileData srcFile) {
+        return (srcFile.documentId + "@" + srcFile.lastModified + ":" + srcFile.size).replace('\t', ' ').replace('\n', ' ');
+    }
+
+    /**
+     * Opens the content of a source file, only called when it must be downloaded
+     */
+    interface ContentSource {
+        @Nullable
+        InputStream open() throws IOException;
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,80 @@
+package org.estasney.android;
+
+import android.os.Process;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pools for the library's I/O.
+ * <p>
+ * Threads are named after their pool, run at background priority so they don't compete with the
+ * UI and native render threads, and exit after sitting idle, so a pool costs no threads between syncs.
+ * The shared pools serve every {@link MindRefUtils} created with a shared executor and are never shut
+ * down, which is safe because they hold no threads while idle.
+ */
+final class MindRefExecutors {
+    static final long IDLE_TIMEOUT_SECONDS = 30;
+    static final int NUMBER_OF_CORES = Runtime.getRuntime().availableProcessors();
+
+    private static ThreadPoolExecutor sharedWorkers;
+    private static ThreadPoolExecutor sharedProviderCalls;
+
+    private MindRefExecutors() {
+    }
+
+    /**
+     * @param name    - Prefix of the pool's thread names
+     * @param threads - Maximum threads, tasks beyond it are queued
+     * @return Pool whose threads all time out when idle
+     */
+    static ThreadPoolExecutor newWorkerPool(String name, int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory(name));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Pool for provider calls, whose concurrency is bounded by a {@link MindRefConcurrencyController}
+     * rather than by the pool
+     *
+     * @param name - Prefix of the pool's thread names
+     * @return Pool starting a thread for each task no idle thread can take
+     */
+    static ThreadPoolExecutor newProviderPool(String name) {
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), threadFactory(name));
+    }
+
+    static synchronized ThreadPoolExecutor sharedWorkers() {
+        if (sharedWorkers == null) {
+            sharedWorkers = newWorkerPool("mindref-io", NUMBER_OF_CORES);
+        }
+        return sharedWorkers;
+    }
+
+    static synchronized ThreadPoolExecutor sharedProviderCalls() {
+        if (sharedProviderCalls == null) {
+            sharedProviderCalls = newProviderPool("mindref-provider");
+        }
+        return sharedProviderCalls;
+    }
+
+    static ThreadFactory threadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, name + "-" + count.incrementAndGet());
+            // Never keeps the process alive on its own
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
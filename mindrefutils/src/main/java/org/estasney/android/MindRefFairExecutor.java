@@ -0,0 +1,126 @@
+package org.estasney.android;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * A bounded pool shared by several sources of work, taking their tasks in turn.
+ * <p>
+ * Each source submits through its own {@link Lane}. Whenever a thread frees up, the next task comes
+ * from the next lane with work queued, round robin, so a source with thousands of small files can't
+ * starve one with a few large ones however fast it submits.
+ */
+final class MindRefFairExecutor {
+    private static final String TAG = "MindRefFairExecutor";
+
+    private final ThreadPoolExecutor threads;
+    private final int maxConcurrent;
+    private final Object lock = new Object();
+    // Lanes with queued tasks, in the order they are served
+    private final ArrayDeque<Lane> ready = new ArrayDeque<>();
+    private int running = 0;
+    private boolean closed = false;
+
+    /**
+     * @param name          - Prefix of the pool's thread names
+     * @param maxConcurrent - Tasks run at once across all lanes
+     */
+    MindRefFairExecutor(String name, int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be positive: " + maxConcurrent);
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.threads = MindRefExecutors.newWorkerPool(name, maxConcurrent);
+    }
+
+    /**
+     * @param name - Identifies the lane in logs
+     * @return A new lane, served in turn with the others
+     */
+    Lane newLane(String name) {
+        return new Lane(name);
+    }
+
+    /**
+     * Stop running queued tasks. Those that are futures are cancelled, so nobody waits on them forever.
+     * Tasks already running finish.
+     */
+    void close() {
+        ArrayDeque<Runnable> dropped = new ArrayDeque<>();
+        synchronized (lock) {
+            closed = true;
+            for (Lane lane : ready) {
+                dropped.addAll(lane.tasks);
+                lane.tasks.clear();
+                lane.queued = false;
+            }
+            ready.clear();
+        }
+        MindRefLog.d(TAG, "close - Dropping {} queued tasks", dropped.size());
+        for (Runnable task : dropped) {
+            if (task instanceof Future) {
+                ((Future<?>) task).cancel(false);
+            }
+        }
+        threads.shutdown();
+    }
+
+    /**
+     * Start queued tasks while threads are free. Caller holds the lock.
+     */
+    private void dispatch() {
+        while (running < maxConcurrent && !ready.isEmpty()) {
+            Lane lane = ready.poll();
+            Runnable task = lane.tasks.poll();
+            if (lane.tasks.isEmpty()) {
+                lane.queued = false;
+            } else {
+                ready.add(lane);
+            }
+            running++;
+            threads.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    synchronized (lock) {
+                        running--;
+                        if (!closed) {
+                            dispatch();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Submits one source's tasks
+     */
+    final class Lane implements Executor {
+        private final String name;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private boolean queued = false;
+
+        private Lane(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            synchronized (lock) {
+                if (closed) {
+                    throw new RejectedExecutionException("Closed, rejecting task from " + name);
+                }
+                tasks.add(task);
+                if (!queued) {
+                    queued = true;
+                    ready.add(this);
+                }
+                dispatch();
+            }
+        }
+    }
+}
@@ -4,14 +4,16 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.DocumentsContract;
-import android.util.Log;
 
 import androidx.annotation.Nullable;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Objects;
+import java.util.concurrent.Executor;
 
 public class MindRefFileData {
     public final Uri uri;
@@ -20,15 +22,35 @@ public class MindRefFileData {
     public final String mimeType;
     public final boolean isDirectory;
     public final long lastModified;
+    /**
+     * Size in bytes, -1 when the provider did not report it
+     */
+    public final long size;
     private static final String TAG = "MindRefFileData";
+    static final String[] CHILD_PROJECTION = {DocumentsContract.Document.COLUMN_DOCUMENT_ID, DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+            DocumentsContract.Document.COLUMN_MIME_TYPE, DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+            DocumentsContract.Document.COLUMN_SIZE};
 
     public MindRefFileData(Uri parentUri, String documentId, String displayName, String mimeType, long lastModified) {
+        this(parentUri, documentId, displayName, mimeType, lastModified, -1);
+    }
+
+    public MindRefFileData(Uri parentUri, String documentId, String displayName, String mimeType, long lastModified, long size) {
         this.uri = DocumentsContract.buildDocumentUriUsingTree(parentUri, documentId);
         this.documentId = documentId;
         this.displayName = displayName;
         this.mimeType = mimeType;
         this.isDirectory = Objects.equals(this.mimeType, DocumentsContract.Document.MIME_TYPE_DIR);
         this.lastModified = lastModified;
+        this.size = size;
+    }
+
+    /**
+     * Build from a cursor over {@link #CHILD_PROJECTION}
+     */
+    static MindRefFileData fromChildCursor(Uri parentUri, Cursor cursor) {
+        long size = cursor.isNull(4) ? -1 : cursor.getLong(4);
+        return new MindRefFileData(parentUri, cursor.getString(0), cursor.getString(1), cursor.getString(2), cursor.getLong(3), size);
     }
 
     public static MindRefFileData fromTreeUri(Uri treeUri) {
@@ -80,7 +102,7 @@ public class MindRefFileData {
                 }
             }
         } catch (Exception e) {
-            Log.w(TAG, "Failed getChildren: " + e);
+            MindRefLog.w(TAG, "Failed getChildren: {}", e);
         }
         return fileData.toArray(new MindRefFileData[0]);
     }
@@ -116,7 +138,7 @@ public class MindRefFileData {
                 }
             }
         } catch (Exception e) {
-            Log.w(TAG, "Failed getChildDirectories: " + e);
+            MindRefLog.w(TAG, "Failed getChildDirectories: {}", e);
         }
         return fileData.toArray(new MindRefFileData[0]);
     }
@@ -157,7 +179,7 @@ public class MindRefFileData {
                 }
             }
         } catch (Exception e) {
-            Log.w(TAG, "Failed getChildDirectory: " + e);
+            MindRefLog.w(TAG, "Failed getChildDirectory: {}", e);
         }
         return matchedFile;
 
@@ -197,7 +219,7 @@ public class MindRefFileData {
                 }
             }
         } catch (Exception e) {
-            Log.w(TAG, "Failed getChildDirectory: " + e);
+            MindRefLog.w(TAG, "Failed getChildDirectory: {}", e);
         }
         return matchedFile;
 
@@ -232,7 +254,7 @@ public class MindRefFileData {
                 }
             }
         } catch (Exception e) {
-            Log.w(TAG, "Failed getChildDirectoriesFromUri: " + e);
+            MindRefLog.w(TAG, "Failed getChildDirectoriesFromUri: {}", e);
         }
         return fileData.toArray(new MindRefFileData[0]);
     }
@@ -265,7 +287,7 @@ public class MindRefFileData {
                 }
             }
         } catch (Exception e) {
-            Log.w(TAG, "Failed getChildren: " + e);
+            MindRefLog.w(TAG, "Failed getChildren: {}", e);
         }
         return matchedFile;
     }
@@ -300,7 +322,7 @@ public class MindRefFileData {
                 }
             }
         } catch (Exception e) {
-            Log.w(TAG, "Failed getChildren: " + e);
+            MindRefLog.w(TAG, "Failed getChildren: {}", e);
         }
         return matchedFile;
     }
@@ -343,15 +365,15 @@ public class MindRefFileData {
                 }
             }
         } catch (Exception e) {
-            Log.w(TAG, "Failed getOrMakeChild: " + e);
+            MindRefLog.w(TAG, "Failed getOrMakeChild: {}", e);
         }
         if (matchedFile != null) {
-            Log.d(TAG, "getOrMakeChild: found match");
+            MindRefLog.d(TAG, "getOrMakeChild: found match");
             return matchedFile;
         }
         Uri childTargetUri = DocumentsContract.createDocument(contentResolver, this.uri, childMime, childName);
         matchedFile = new MindRefFileData(this.uri, DocumentsContract.getDocumentId(childTargetUri), childName, childMime, 0);
-        Log.d(TAG, "getOrMakeChild: Match Not Found, Created New Document : " + childTargetUri);
+        MindRefLog.d(TAG, "getOrMakeChild: Match Not Found, Created New Document : {}", childTargetUri);
         return matchedFile;
     }
 
@@ -360,33 +382,91 @@ public class MindRefFileData {
      * Use ContentResolver to query for children from a Uri, statically
      * @param parentUri - Uri
      * @param contentResolver - ContentResolver
-     * @return - MindRefFileData
+     * @return - MindRefFileData, empty if the query fails
      */
     public static MindRefFileData[] getChildrenFromUri(Uri parentUri, ContentResolver contentResolver) {
+        try {
+            return queryChildrenFromUri(parentUri, contentResolver);
+        } catch (Exception e) {
+            MindRefLog.w(TAG, "Failed getChildren: {}", e);
+        }
+        return new MindRefFileData[0];
+    }
+
+    /**
+     * Use ContentResolver to query for children from a Uri, statically.
+     * Unlike {@link #getChildrenFromUri}, failures are thrown rather than returning an empty listing,
+     * so an empty directory can be told apart from an unreachable one.
+     * @param parentUri - Uri
+     * @param contentResolver - ContentResolver
+     * @return - MindRefFileData
+     * @throws IOException - Thrown when the provider returns no cursor
+     */
+    public static MindRefFileData[] queryChildrenFromUri(Uri parentUri, ContentResolver contentResolver) throws IOException {
+        return queryChildrenFromUri(parentUri, contentResolver, null);
+    }
+
+    /**
+     * Use ContentResolver to query for children from a Uri, statically, passing query arguments such as a selection.
+     * Providers may ignore the arguments, so callers must still check the rows they need to exclude.
+     * @param parentUri - Uri
+     * @param contentResolver - ContentResolver
+     * @param queryArgs - Query arguments, may be null
+     * @return - MindRefFileData
+     * @throws IOException - Thrown when the provider returns no cursor
+     */
+    public static MindRefFileData[] queryChildrenFromUri(Uri parentUri, ContentResolver contentResolver, @Nullable Bundle queryArgs) throws IOException {
 
         final Uri childrenUri = getChildrenUriFromUri(parentUri);
-        String[] projection = {DocumentsContract.Document.COLUMN_DOCUMENT_ID, DocumentsContract.Document.COLUMN_DISPLAY_NAME,
-                DocumentsContract.Document.COLUMN_MIME_TYPE, DocumentsContract.Document.COLUMN_LAST_MODIFIED};
         final ArrayList<MindRefFileData> fileData = new ArrayList<>();
         try (Cursor cursor = contentResolver.query(childrenUri,
-                projection,
-                null, null, null
+                CHILD_PROJECTION,
+                queryArgs, null
         )) {
-            if (cursor != null) {
-                while (cursor.moveToNext()) {
-                    String childId = cursor.getString(0);
-                    String childName = cursor.getString(1);
-                    String childMime = cursor.getString(2);
-                    long childLastMod = cursor.getLong(3);
-                    MindRefFileData mf = new MindRefFileData(parentUri, childId, childName, childMime, childLastMod);
-                    fileData.add(mf);
-                }
+            if (cursor == null) {
+                throw new MindRefProviderException("Provider returned no cursor for " + childrenUri);
+            }
+            while (cursor.moveToNext()) {
+                fileData.add(fromChildCursor(parentUri, cursor));
             }
-        } catch (Exception e) {
-            Log.w(TAG, "Failed getChildren: " + e);
         }
         return fileData.toArray(new MindRefFileData[0]);
     }
 
+    /**
+     * List children incrementally, delivering them in pages as the provider's cursor is read
+     * @param contentResolver - ContentResolver
+     * @param pageSize - Maximum number of children per page
+     * @param workerExecutor - Executor the provider is queried on
+     * @param callbackExecutor - Executor the callback is invoked on
+     * @param callback - Receives pages, then completion or failure
+     * @return - MindRefListing, can be used to cancel
+     */
+    public MindRefListing listChildren(ContentResolver contentResolver, int pageSize, Executor workerExecutor,
+                                       Executor callbackExecutor, MindRefListing.Callback callback) {
+        if (!this.isDirectory) {
+            throw new IllegalArgumentException(this.displayName + " is not a directory");
+        }
+        return listChildrenFromUri(this.uri, contentResolver, pageSize, workerExecutor, callbackExecutor, callback);
+    }
+
+    /**
+     * List children from a Uri incrementally, delivering them in pages as the provider's cursor is read
+     * @param parentUri - Uri
+     * @param contentResolver - ContentResolver
+     * @param pageSize - Maximum number of children per page
+     * @param workerExecutor - Executor the provider is queried on
+     * @param callbackExecutor - Executor the callback is invoked on
+     * @param callback - Receives pages, then completion or failure
+     * @return - MindRefListing, can be used to cancel
+     */
+    public static MindRefListing listChildrenFromUri(Uri parentUri, ContentResolver contentResolver, int pageSize,
+                                                     Executor workerExecutor, Executor callbackExecutor,
+                                                     MindRefListing.Callback callback) {
+        MindRefListing listing = new MindRefListing(parentUri, contentResolver, pageSize, callbackExecutor, callback);
+        workerExecutor.execute(listing);
+        return listing;
+    }
+
 
 }
@@ -3,16 +3,18 @@ package org.estasney.android;
 import android.content.Context;
 import android.net.Uri;
 import android.provider.DocumentsContract;
-import android.util.Log;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
+import java.util.Locale;
 
 public class MindRefFileUtils {
 
     private static final String TAG = "mindrefutils";
+    // Called for every directory of a mirror
+    private static final MindRefLog.RateLimit DIRECTORY_LOG_LIMIT = new MindRefLog.RateLimit(20);
 
     /**
      * When using ACTION_OPEN_... the Uri is a 'content' form. We are working with DocumentProvider
@@ -33,15 +35,15 @@ public class MindRefFileUtils {
      */
     public static void ensureDirectoryExists(File dir) throws IOException {
         if (dir.exists()) {
-            Log.d(TAG, "Directory already exists: " + dir);
+            MindRefLog.d(TAG, DIRECTORY_LOG_LIMIT, "Directory already exists: {}", dir);
             return;
         }
         boolean success = dir.mkdirs();
         if (!success) {
-            Log.e(TAG, "Failed to create directory: " + dir);
+            MindRefLog.e(TAG, "Failed to create directory: {}", dir);
             throw new IOException("Failed to create directory: " + dir);
         } else {
-            Log.d(TAG, "Created directory: " + dir);
+            MindRefLog.d(TAG, "Created directory: {}", dir);
         }
     }
 
@@ -73,4 +75,18 @@ public class MindRefFileUtils {
         return fileName.split("\\.")[0];
     }
 
+    /**
+     * Returns the lower case extension of a file, without the dot
+     *
+     * @param fileName string filename or '/' separated path
+     * @return String, extension or empty string when there is none
+     */
+    public static String getFileExt(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot < fileName.lastIndexOf('/')) {
+            return "";
+        }
+        return fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
 }
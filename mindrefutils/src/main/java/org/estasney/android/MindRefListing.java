@@ -0,0 +1,217 @@
+package org.estasney.android;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.provider.DocumentsContract;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Incremental listing of a directory's children.
+ * <p>
+ * Rows are read from the provider's cursor and handed to the callback in pages as they are
+ * read, rather than after the whole cursor has been drained. Providers that are still
+ * fetching (cloud backed providers in particular) flag the cursor with
+ * {@link DocumentsContract#EXTRA_LOADING}; the listing then waits for the provider's change
+ * notification and re-queries, delivering only the rows it has not already delivered.
+ * A provider that never finishes loading fails the listing with a {@link TimeoutException},
+ * the pages already delivered being an incomplete listing.
+ * <p>
+ * Pages, then completion, are handed to the callback executor in order. A single threaded executor
+ * (the main thread, for example) receives them in that order, a pool may run them out of order.
+ * <p>
+ * Created through {@link MindRefFileData#listChildrenFromUri}.
+ */
+public class MindRefListing implements Runnable {
+    private static final String TAG = "MindRefListing";
+
+    /**
+     * Upper bound on how long to wait for a loading provider to notify before giving up on it
+     */
+    private static final long LOADING_TIMEOUT_MS = 30_000;
+
+    /**
+     * Receives pages of children. All methods are invoked on the callback executor, in the order the
+     * pages were read only when that executor runs one task at a time.
+     */
+    public interface Callback {
+
+        void onPage(MindRefFileData[] page);
+
+        void onComplete(int total);
+
+        void onFailure(Throwable t);
+    }
+
+    /**
+     * Queries the children of a directory
+     */
+    interface ChildQuery {
+        @Nullable
+        Cursor query(Uri childrenUri, CancellationSignal cancellationSignal);
+    }
+
+    private final Uri parentUri;
+    private final ChildQuery childQuery;
+    private final long loadingTimeoutMs;
+    private final int pageSize;
+    private final Executor callbackExecutor;
+    private final Callback callback;
+    private final CancellationSignal cancellationSignal = new CancellationSignal();
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private final HashSet<String> delivered = new HashSet<>();
+    // Wait for a loading provider in progress, counted down by cancel
+    private volatile CountDownLatch changed;
+
+    MindRefListing(Uri parentUri, ContentResolver contentResolver, int pageSize, Executor callbackExecutor, Callback callback) {
+        this(parentUri, (childrenUri, cancellationSignal) -> contentResolver.query(childrenUri, MindRefFileData.CHILD_PROJECTION, (Bundle) null, cancellationSignal),
+                pageSize, callbackExecutor, callback, LOADING_TIMEOUT_MS);
+    }
+
+    MindRefListing(Uri parentUri, ChildQuery childQuery, int pageSize, Executor callbackExecutor, Callback callback, long loadingTimeoutMs) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        this.parentUri = parentUri;
+        this.childQuery = childQuery;
+        this.loadingTimeoutMs = loadingTimeoutMs;
+        this.pageSize = pageSize;
+        this.callbackExecutor = callbackExecutor;
+        this.callback = callback;
+    }
+
+    /**
+     * Stop the listing. Any query in flight is cancelled and no further callbacks are delivered.
+     */
+    public void cancel() {
+        if (cancelled.compareAndSet(false, true)) {
+            MindRefLog.d(TAG, "cancel - {}", parentUri);
+            cancellationSignal.cancel();
+            CountDownLatch waiting = changed;
+            if (waiting != null) {
+                waiting.countDown();
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    @Override
+    public void run() {
+        try {
+            boolean hasMore = true;
+            while (hasMore && !isCancelled()) {
+                hasMore = queryOnce();
+            }
+            if (!isCancelled()) {
+                final int total = delivered.size();
+                MindRefLog.d(TAG, "run - Finish, {} items", total);
+                deliver(() -> callback.onComplete(total));
+            }
+        } catch (OperationCanceledException e) {
+            MindRefLog.d(TAG, "run - Cancelled");
+        } catch (Exception e) {
+            MindRefLog.w(TAG, "run - Failed listing: {}", e);
+            deliver(() -> callback.onFailure(e));
+        }
+    }
+
+    /**
+     * Run one query against the provider, delivering rows not seen before
+     *
+     * @return true when the provider signalled more rows are coming and a change notification arrived
+     * @throws TimeoutException - Thrown when the provider signalled more rows but never notified
+     */
+    private boolean queryOnce() throws InterruptedException, TimeoutException {
+        final Uri childrenUri = MindRefFileData.getChildrenUriFromUri(parentUri);
+        final CountDownLatch notification = new CountDownLatch(1);
+        changed = notification;
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                notification.countDown();
+            }
+        };
+
+        try (Cursor cursor = childQuery.query(childrenUri, cancellationSignal)) {
+            if (cursor == null) {
+                return false;
+            }
+            boolean loading = isLoading(cursor);
+            if (loading) {
+                // Register before reading so a notification raised mid-read is not lost.
+                // Closing the cursor unregisters the observer.
+                cursor.registerContentObserver(observer);
+            }
+
+            ArrayList<MindRefFileData> page = new ArrayList<>(pageSize);
+            while (cursor.moveToNext()) {
+                if (isCancelled()) {
+                    return false;
+                }
+                String childId = cursor.getString(0);
+                if (!delivered.add(childId)) {
+                    continue;
+                }
+                page.add(MindRefFileData.fromChildCursor(parentUri, cursor));
+                if (page.size() == pageSize) {
+                    deliverPage(page);
+                    page = new ArrayList<>(pageSize);
+                }
+            }
+            if (!page.isEmpty()) {
+                deliverPage(page);
+            }
+
+            if (!loading || isCancelled()) {
+                return false;
+            }
+            MindRefLog.d(TAG, "queryOnce - Provider still loading, waiting for change");
+            boolean notified = notification.await(loadingTimeoutMs, TimeUnit.MILLISECONDS);
+            if (isCancelled()) {
+                return false;
+            }
+            if (!notified) {
+                throw new TimeoutException("Provider still loading after " + loadingTimeoutMs + "ms, listed " + delivered.size() + " items");
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return true when the provider flagged the cursor as still fetching rows
+     */
+    boolean isLoading(Cursor cursor) {
+        Bundle extras = cursor.getExtras();
+        return extras != null && extras.getBoolean(DocumentsContract.EXTRA_LOADING, false);
+    }
+
+    private void deliverPage(@NonNull ArrayList<MindRefFileData> page) {
+        final MindRefFileData[] pageData = page.toArray(new MindRefFileData[0]);
+        deliver(() -> callback.onPage(pageData));
+    }
+
+    private void deliver(Runnable runnable) {
+        callbackExecutor.execute(() -> {
+            if (!isCancelled()) {
+                runnable.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,251 @@
+package org.estasney.android;
+
+import android.util.Log;
+
+/**
+ * Logging for the library, costing a single volatile read when the level is disabled.
+ * <p>
+ * Messages are formatted only once they are known to be logged. A message is a pattern with
+ * {@code {}} placeholders, filled with the arguments in order, and the fixed arity overloads
+ * avoid allocating a varargs array on the disabled path. Counts and durations take the {@code long}
+ * overloads, so they are only boxed once logged. Call sites with arguments that take work to compute,
+ * or that mix numbers with objects, check {@link #isLoggable} first. Events logged once per file go through a
+ * {@link RateLimit}, so a large mirror writes a bounded number of lines.
+ * <p>
+ * The level is set with {@link MindRefUtils#setLogLevel}, using the priorities of {@link Log}.
+ */
+final class MindRefLog {
+    /**
+     * Above {@link Log#ASSERT}, disables all logging
+     */
+    static final int NONE = Log.ASSERT + 1;
+    static final int DEFAULT_LEVEL = Log.DEBUG;
+
+    private static volatile int level = DEFAULT_LEVEL;
+
+    private MindRefLog() {
+    }
+
+    static void setLevel(int priority) {
+        level = priority;
+    }
+
+    static int getLevel() {
+        return level;
+    }
+
+    static boolean isLoggable(int priority) {
+        return priority >= level;
+    }
+
+    static void v(String tag, String message) {
+        if (isLoggable(Log.VERBOSE)) {
+            Log.v(tag, message);
+        }
+    }
+
+    static void v(String tag, String pattern, Object arg) {
+        if (isLoggable(Log.VERBOSE)) {
+            Log.v(tag, format(pattern, arg));
+        }
+    }
+
+    static void v(String tag, String pattern, Object arg1, Object arg2) {
+        if (isLoggable(Log.VERBOSE)) {
+            Log.v(tag, format(pattern, arg1, arg2));
+        }
+    }
+
+    static void d(String tag, String message) {
+        if (isLoggable(Log.DEBUG)) {
+            Log.d(tag, message);
+        }
+    }
+
+    static void d(String tag, String pattern, Object arg) {
+        if (isLoggable(Log.DEBUG)) {
+            Log.d(tag, format(pattern, arg));
+        }
+    }
+
+    static void d(String tag, String pattern, Object arg1, Object arg2) {
+        if (isLoggable(Log.DEBUG)) {
+            Log.d(tag, format(pattern, arg1, arg2));
+        }
+    }
+
+    static void d(String tag, String pattern, long arg) {
+        if (isLoggable(Log.DEBUG)) {
+            Log.d(tag, format(pattern, arg));
+        }
+    }
+
+    static void d(String tag, String pattern, long arg1, long arg2) {
+        if (isLoggable(Log.DEBUG)) {
+            Log.d(tag, format(pattern, arg1, arg2));
+        }
+    }
+
+    static void d(String tag, String pattern, long arg1, long arg2, long arg3) {
+        if (isLoggable(Log.DEBUG)) {
+            Log.d(tag, format(pattern, arg1, arg2, arg3));
+        }
+    }
+
+    static void d(String tag, String pattern, Object arg1, Object arg2, Object arg3) {
+        if (isLoggable(Log.DEBUG)) {
+            Log.d(tag, format(pattern, arg1, arg2, arg3));
+        }
+    }
+
+    static void d(String tag, String pattern, Object arg1, Object arg2, Object arg3, Object arg4) {
+        if (isLoggable(Log.DEBUG)) {
+            Log.d(tag, format(pattern, arg1, arg2, arg3, arg4));
+        }
+    }
+
+    /**
+     * Debug message for a per-item event, dropped when the limit is exceeded
+     */
+    static void d(String tag, RateLimit limit, String pattern, Object arg) {
+        int dropped;
+        if (isLoggable(Log.DEBUG) && (dropped = limit.acquire()) >= 0) {
+            Log.d(tag, withDropped(format(pattern, arg), dropped));
+        }
+    }
+
+    /**
+     * Debug message for a per-item event, dropped when the limit is exceeded
+     */
+    static void d(String tag, RateLimit limit, String pattern, Object arg1, Object arg2) {
+        int dropped;
+        if (isLoggable(Log.DEBUG) && (dropped = limit.acquire()) >= 0) {
+            Log.d(tag, withDropped(format(pattern, arg1, arg2), dropped));
+        }
+    }
+
+    static void i(String tag, String message) {
+        if (isLoggable(Log.INFO)) {
+            Log.i(tag, message);
+        }
+    }
+
+    static void i(String tag, String pattern, Object arg) {
+        if (isLoggable(Log.INFO)) {
+            Log.i(tag, format(pattern, arg));
+        }
+    }
+
+    static void i(String tag, String pattern, Object arg1, Object arg2) {
+        if (isLoggable(Log.INFO)) {
+            Log.i(tag, format(pattern, arg1, arg2));
+        }
+    }
+
+    static void w(String tag, String message) {
+        if (isLoggable(Log.WARN)) {
+            Log.w(tag, message);
+        }
+    }
+
+    static void w(String tag, String pattern, Object arg) {
+        if (isLoggable(Log.WARN)) {
+            Log.w(tag, format(pattern, arg));
+        }
+    }
+
+    static void w(String tag, String pattern, long arg) {
+        if (isLoggable(Log.WARN)) {
+            Log.w(tag, format(pattern, arg));
+        }
+    }
+
+    static void w(String tag, String pattern, Object arg1, Object arg2) {
+        if (isLoggable(Log.WARN)) {
+            Log.w(tag, format(pattern, arg1, arg2));
+        }
+    }
+
+    static void e(String tag, String message) {
+        if (isLoggable(Log.ERROR)) {
+            Log.e(tag, message);
+        }
+    }
+
+    static void e(String tag, String pattern, Object arg) {
+        if (isLoggable(Log.ERROR)) {
+            Log.e(tag, format(pattern, arg));
+        }
+    }
+
+    static void e(String tag, String message, Throwable throwable) {
+        if (isLoggable(Log.ERROR)) {
+            Log.e(tag, message, throwable);
+        }
+    }
+
+    static void e(String tag, String pattern, Object arg, Throwable throwable) {
+        if (isLoggable(Log.ERROR)) {
+            Log.e(tag, format(pattern, arg), throwable);
+        }
+    }
+
+    /**
+     * Fill {@code {}} placeholders in order. Surplus placeholders are left as they are, surplus arguments ignored.
+     */
+    static String format(String pattern, Object... args) {
+        StringBuilder message = new StringBuilder(pattern.length() + 16 * args.length);
+        int start = 0;
+        for (Object arg : args) {
+            int placeholder = pattern.indexOf("{}", start);
+            if (placeholder < 0) {
+                break;
+            }
+            message.append(pattern, start, placeholder).append(arg);
+            start = placeholder + 2;
+        }
+        return message.append(pattern, start, pattern.length()).toString();
+    }
+
+    private static String withDropped(String message, int dropped) {
+        return dropped == 0 ? message : message + " (" + dropped + " similar suppressed)";
+    }
+
+    /**
+     * Lets through at most a fixed number of messages per second, counting the rest.
+     * The next message let through reports how many were dropped.
+     */
+    static final class RateLimit {
+        private static final long WINDOW_NANOS = 1_000_000_000L;
+        private final int perSecond;
+        private long windowStart = System.nanoTime();
+        private int count = 0;
+        private int suppressed = 0;
+
+        /**
+         * @param perSecond - Messages allowed each second, 0 to drop all
+         */
+        RateLimit(int perSecond) {
+            this.perSecond = perSecond;
+        }
+
+        /**
+         * @return Messages dropped since the last one let through, or -1 if this one should be dropped
+         */
+        synchronized int acquire() {
+            long now = System.nanoTime();
+            if (now - windowStart >= WINDOW_NANOS) {
+                windowStart = now;
+                count = 0;
+            }
+            if (count >= perSecond) {
+                suppressed++;
+                return -1;
+            }
+            count++;
+            int dropped = suppressed;
+            suppressed = 0;
+            return dropped;
+        }
+    }
+}
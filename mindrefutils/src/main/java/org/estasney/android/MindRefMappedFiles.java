@@ -0,0 +1,186 @@
+package org.estasney.android;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Read-only memory mappings of mirrored files, so their content reaches native code without
+ * being copied onto the heap.
+ * <p>
+ * Recently used mappings are cached, least recently used first out once the entry or byte limit is
+ * exceeded. A cached mapping is only reused while the file is the same one it was made from, checked
+ * by a single stat per read, and mappings of files a mirror replaces or removes are dropped as it goes.
+ * <p>
+ * Java has no way to unmap a buffer, a dropped mapping is released once its last buffer is collected.
+ */
+public class MindRefMappedFiles implements MindRefMirrorListener {
+    private static final String TAG = "MindRefMappedFiles";
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private final Path root;
+    private final int maxEntries;
+    private final long maxBytes;
+    // Root the current mirror writes into, differs from root while a staged mirror runs
+    private volatile Path mirrorRoot;
+    private final LinkedHashMap<Path, Mapping> mappings = new LinkedHashMap<>(16, 0.75f, true);
+    private long mappedBytes = 0;
+
+    private static final class Mapping {
+        final MappedByteBuffer buffer;
+        @Nullable
+        final Object fileKey;
+        final long size;
+        final long lastModified;
+
+        Mapping(MappedByteBuffer buffer, BasicFileAttributes attributes) {
+            this.buffer = buffer;
+            this.fileKey = attributes.fileKey();
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+        }
+
+        boolean isOf(BasicFileAttributes attributes) {
+            return Objects.equals(fileKey, attributes.fileKey()) && size == attributes.size()
+                    && lastModified == attributes.lastModifiedTime().toMillis();
+        }
+
+        static boolean sameFile(BasicFileAttributes a, BasicFileAttributes b) {
+            return Objects.equals(a.fileKey(), b.fileKey()) && a.size() == b.size()
+                    && a.lastModifiedTime().equals(b.lastModifiedTime());
+        }
+    }
+
+    /**
+     * @param root       - App Storage root, relative paths are resolved against it
+     * @param maxEntries - Mappings kept at most
+     * @param maxBytes   - Total size of the mappings kept at most. A larger file is still mapped, but not kept
+     */
+    public MindRefMappedFiles(Path root, int maxEntries, long maxBytes) {
+        this.root = root;
+        this.mirrorRoot = root;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Map a mirrored file
+     *
+     * @param path - Path relative to the App Storage root, or absolute
+     * @return Read-only direct buffer over the whole file, positioned at 0, independent of other callers
+     * @throws IOException - Thrown when the file cannot be read, or is too large to map
+     */
+    public ByteBuffer map(String path) throws IOException {
+        Path resolved = root.resolve(path).normalize();
+        BasicFileAttributes before = Files.readAttributes(resolved, BasicFileAttributes.class);
+        synchronized (this) {
+            Mapping cached = mappings.get(resolved);
+            if (cached != null) {
+                if (cached.isOf(before)) {
+                    return cached.buffer.duplicate();
+                }
+                remove(resolved);
+            }
+        }
+        MappedByteBuffer buffer;
+        long size;
+        try (FileChannel channel = FileChannel.open(resolved, StandardOpenOption.READ)) {
+            // Sized from the open file, the path may have been replaced since it was read
+            size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Too large to map: " + resolved);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        MindRefLog.v(TAG, "map - Mapped {}", resolved);
+        // Only cached when the path still holds the file stat'ed before opening it, so the mapping
+        // is known to be of the file its attributes describe
+        BasicFileAttributes after = Files.readAttributes(resolved, BasicFileAttributes.class);
+        if (size <= maxBytes && size == after.size() && Mapping.sameFile(before, after)) {
+            synchronized (this) {
+                Mapping previous = mappings.put(resolved, new Mapping(buffer, after));
+                if (previous != null) {
+                    mappedBytes -= previous.size;
+                }
+                mappedBytes += size;
+                evict();
+            }
+        }
+        return buffer.duplicate();
+    }
+
+    /**
+     * @return Number of mappings cached
+     */
+    public synchronized int size() {
+        return mappings.size();
+    }
+
+    /**
+     * @return Total size of the mappings cached
+     */
+    public synchronized long mappedBytes() {
+        return mappedBytes;
+    }
+
+    @Override
+    public void onMirrorStarted(Path targetRoot) {
+        mirrorRoot = targetRoot;
+    }
+
+    @Override
+    public void onFileMirrored(Path targetPath, MindRefFileData srcFile, boolean changed) {
+        if (changed) {
+            synchronized (this) {
+                remove(toRootPath(targetPath));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onPathRemoved(Path targetPath, boolean isDirectory) {
+        Path removed = toRootPath(targetPath);
+        Iterator<Map.Entry<Path, Mapping>> entries = mappings.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Path, Mapping> entry = entries.next();
+            if (entry.getKey().equals(removed) || (isDirectory && entry.getKey().startsWith(removed))) {
+                mappedBytes -= entry.getValue().size;
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Where a path written by the mirror is read from through the App Storage root
+     */
+    private Path toRootPath(Path targetPath) {
+        return root.resolve(mirrorRoot.relativize(targetPath)).normalize();
+    }
+
+    private void remove(Path path) {
+        Mapping removed = mappings.remove(path);
+        if (removed != null) {
+            mappedBytes -= removed.size;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Path, Mapping>> eldest = mappings.entrySet().iterator();
+        while ((mappings.size() > maxEntries || mappedBytes > maxBytes) && eldest.hasNext()) {
+            mappedBytes -= eldest.next().getValue().size;
+            eldest.remove();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.estasney.android;
+
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Records which directories a mirror has fully completed, so an interrupted mirror can resume.
+ * <p>
+ * Directories are appended to a file under {@link MindRefRunner#METADATA_DIR_NAME} as they complete.
+ * Before each append the mirror's listener is asked to persist its state, so a directory recorded here
+ * is reflected in the search index, catalog, ... even if the process dies afterwards. A mirror started
+ * with a checkpoint of the same source skips the directories it lists. The file is deleted once a mirror
+ * finishes, with or without failures, so it only ever resumes a mirror that was interrupted.
+ */
+public class MindRefMirrorCheckpoint {
+    private static final String TAG = "MindRefCheckpoint";
+    public static final String CHECKPOINT_FILE_NAME = "mirror.checkpoint";
+    private static final String HEADER_PREFIX = "mindref-checkpoint-v1 ";
+    /**
+     * A checkpoint older than this is ignored. External Storage has likely changed since.
+     */
+    private static final long MAX_AGE_MS = 24 * 60 * 60 * 1000L;
+    /**
+     * Minimum time between writes, so small directories don't each cost a listener save
+     */
+    private static final long FLUSH_INTERVAL_MS = 5_000;
+
+    private final Path checkpointPath;
+    private final HashSet<String> completed = new HashSet<>();
+    private final ArrayList<String> pending = new ArrayList<>();
+    private long lastFlush = System.currentTimeMillis();
+
+    /**
+     * Open the checkpoint for a mirror, resuming a previous one of the same source if it is recent enough
+     *
+     * @param targetRoot - Root of the mirror in App Storage
+     * @param sourceId   - Identifies External Storage, a checkpoint of a different source is discarded
+     * @throws IOException - Thrown when a new checkpoint cannot be started
+     */
+    public MindRefMirrorCheckpoint(Path targetRoot, String sourceId) throws IOException {
+        this.checkpointPath = targetRoot.resolve(MindRefRunner.METADATA_DIR_NAME).resolve(CHECKPOINT_FILE_NAME);
+        if (load(sourceId)) {
+            MindRefLog.d(TAG, "Resuming mirror, {} directories already complete", completed.size());
+            return;
+        }
+        MindRefFileUtils.ensureDirectoryExists(checkpointPath.getParent().toFile());
+        String header = HEADER_PREFIX + System.currentTimeMillis() + " " + sourceId + "\n";
+        Files.write(checkpointPath, header.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private boolean load(String sourceId) {
+        if (!Files.exists(checkpointPath)) {
+            return false;
+        }
+        try {
+            List<String> lines = Files.readAllLines(checkpointPath, StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !lines.get(0).startsWith(HEADER_PREFIX)) {
+                return false;
+            }
+            String[] header = lines.get(0).substring(HEADER_PREFIX.length()).split(" ", 2);
+            long started = Long.parseLong(header[0]);
+            if (header.length < 2 || !header[1].equals(sourceId)) {
+                MindRefLog.d(TAG, "Discarding checkpoint of another source");
+                return false;
+            }
+            if (System.currentTimeMillis() - started > MAX_AGE_MS) {
+                MindRefLog.d(TAG, "Discarding stale checkpoint");
+                return false;
+            }
+            completed.addAll(lines.subList(1, lines.size()));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            MindRefLog.w(TAG, "Discarding unreadable checkpoint: {}", e);
+            return false;
+        }
+    }
+
+    /**
+     * @param relativeDir - Directory relative to the mirror root
+     * @return true if a previous run of this mirror fully completed the directory
+     */
+    public synchronized boolean isComplete(String relativeDir) {
+        return completed.contains(relativeDir);
+    }
+
+    /**
+     * Record a directory, and everything below it, as mirrored. Written out periodically.
+     *
+     * @param relativeDir - Directory relative to the mirror root
+     * @param listener    - Persisted before the directory is written out, may be null
+     */
+    public synchronized void markComplete(String relativeDir, @Nullable MindRefMirrorListener listener) throws IOException {
+        completed.add(relativeDir);
+        pending.add(relativeDir);
+        if (System.currentTimeMillis() - lastFlush >= FLUSH_INTERVAL_MS) {
+            flush(listener);
+        }
+    }
+
+    /**
+     * Write out directories completed since the last flush
+     *
+     * @param listener - Persisted before the directories are written out, may be null
+     */
+    public synchronized void flush(@Nullable MindRefMirrorListener listener) throws IOException {
+        lastFlush = System.currentTimeMillis();
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (listener != null) {
+            listener.onCheckpoint();
+        }
+        StringBuilder lines = new StringBuilder();
+        for (String relativeDir : pending) {
+            lines.append(relativeDir).append('\n');
+        }
+        Files.write(checkpointPath, lines.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        pending.clear();
+    }
+
+    /**
+     * Remove the checkpoint, the next mirror starts from the root
+     */
+    public synchronized void delete() throws IOException {
+        pending.clear();
+        Files.deleteIfExists(checkpointPath);
+    }
+}
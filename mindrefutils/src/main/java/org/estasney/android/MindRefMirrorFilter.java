@@ -0,0 +1,229 @@
+package org.estasney.android;
+
+import android.content.ContentResolver;
+import android.os.Bundle;
+import android.provider.DocumentsContract;
+
+import androidx.annotation.Nullable;
+
+import java.net.URLConnection;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Limits what {@link MindRefRunner#mirrorDirectory} copies into App Storage.
+ * <p>
+ * Globs are matched against paths relative to the mirror root, '/' separated, using
+ * {@link FileSystem#getPathMatcher} syntax. {@code **} crosses directories, so {@code **}{@code /build}
+ * matches a build directory at any depth below the root, and {@code build} one at the root.
+ * <ul>
+ *     <li>Exclude globs apply to files and directories. An excluded directory is not listed at all.</li>
+ *     <li>Include globs apply to files only. When any are set, a file must match one of them.</li>
+ *     <li>Mime types apply to files only, and may end in {@code /*}.</li>
+ *     <li>Max depth counts path segments: 1 mirrors only the root's own files.</li>
+ * </ul>
+ * Mime type and size limits are also passed to the provider as a query selection, so a provider
+ * that honors selections never returns the filtered rows. Every row is checked again here, so
+ * providers that ignore the selection are filtered before any bytes are transferred.
+ * <p>
+ * Local files the filter excludes are left alone rather than removed as stale.
+ * Configure the filter before handing it to a mirror.
+ */
+public class MindRefMirrorFilter {
+    private static final String GLOB_PREFIX = "glob:";
+
+    private final List<PathMatcher> includes = new ArrayList<>();
+    private final List<PathMatcher> excludes = new ArrayList<>();
+    private final List<String> mimeTypes = new ArrayList<>();
+    private long maxFileSize = -1;
+    private int maxDepth = -1;
+
+    /**
+     * @param glob - Files must match at least one include glob
+     */
+    public MindRefMirrorFilter include(String glob) {
+        includes.add(FileSystems.getDefault().getPathMatcher(GLOB_PREFIX + glob));
+        return this;
+    }
+
+    /**
+     * @param glob - Files and directories matching an exclude glob are skipped
+     */
+    public MindRefMirrorFilter exclude(String glob) {
+        excludes.add(FileSystems.getDefault().getPathMatcher(GLOB_PREFIX + glob));
+        return this;
+    }
+
+    /**
+     * @param mimeType - Allowed mime type, such as text/markdown or image/*
+     */
+    public MindRefMirrorFilter allowMimeType(String mimeType) {
+        mimeTypes.add(mimeType.toLowerCase(Locale.ROOT));
+        return this;
+    }
+
+    /**
+     * @param bytes - Files larger than this are skipped, negative for no limit
+     */
+    public MindRefMirrorFilter setMaxFileSize(long bytes) {
+        this.maxFileSize = bytes;
+        return this;
+    }
+
+    /**
+     * @param depth - Deepest path, in segments, that is mirrored. Negative for no limit
+     */
+    public MindRefMirrorFilter setMaxDepth(int depth) {
+        this.maxDepth = depth;
+        return this;
+    }
+
+    /**
+     * Should a source entry be mirrored
+     *
+     * @param srcFile      - Entry in External Storage
+     * @param relativePath - Where it would be mirrored, relative to the mirror root
+     * @return true to mirror it
+     */
+    public boolean accepts(MindRefFileData srcFile, String relativePath) {
+        if (srcFile.isDirectory) {
+            return acceptsDirectory(relativePath);
+        }
+        if (!acceptsFilePath(relativePath)) {
+            return false;
+        }
+        if (maxFileSize >= 0 && srcFile.size > maxFileSize) {
+            return false;
+        }
+        return acceptsMimeType(srcFile.mimeType);
+    }
+
+    /**
+     * Should an entry in App Storage without a counterpart in External Storage be removed.
+     * Entries this filter would never have mirrored are kept.
+     *
+     * @param relativePath - Path relative to the mirror root
+     * @param isDirectory  - true for a directory
+     * @param size         - Size of a file, in bytes
+     * @return true if the entry is within the filter, so its absence from External Storage means it is stale
+     */
+    public boolean acceptsLocal(String relativePath, boolean isDirectory, long size) {
+        if (isDirectory) {
+            return acceptsDirectory(relativePath);
+        }
+        if (!acceptsFilePath(relativePath)) {
+            return false;
+        }
+        if (maxFileSize >= 0 && size > maxFileSize) {
+            return false;
+        }
+        if (mimeTypes.isEmpty()) {
+            return true;
+        }
+        // No provider to ask, guess from the name. Unknown types are kept.
+        String guessed = URLConnection.guessContentTypeFromName(relativePath);
+        return guessed != null && acceptsMimeType(guessed);
+    }
+
+    /**
+     * Selection pushing the mime type and size limits down to the provider
+     *
+     * @return Query arguments for {@link ContentResolver#query(android.net.Uri, String[], Bundle, android.os.CancellationSignal)},
+     * null when there is nothing to push down
+     */
+    @Nullable
+    public Bundle toQueryArgs() {
+        ArrayList<String> clauses = new ArrayList<>();
+        ArrayList<String> args = new ArrayList<>();
+        String mimeColumn = DocumentsContract.Document.COLUMN_MIME_TYPE;
+        if (!mimeTypes.isEmpty()) {
+            StringBuilder clause = new StringBuilder("(").append(mimeColumn).append(" = ?");
+            args.add(DocumentsContract.Document.MIME_TYPE_DIR);
+            for (String mimeType : mimeTypes) {
+                if (mimeType.endsWith("/*")) {
+                    clause.append(" OR ").append(mimeColumn).append(" LIKE ?");
+                    args.add(mimeType.substring(0, mimeType.length() - 1) + "%");
+                } else {
+                    clause.append(" OR ").append(mimeColumn).append(" = ?");
+                    args.add(mimeType);
+                }
+            }
+            clauses.add(clause.append(")").toString());
+        }
+        if (maxFileSize >= 0) {
+            String sizeColumn = DocumentsContract.Document.COLUMN_SIZE;
+            clauses.add("(" + mimeColumn + " = ? OR " + sizeColumn + " IS NULL OR " + sizeColumn + " <= ?)");
+            args.add(DocumentsContract.Document.MIME_TYPE_DIR);
+            args.add(Long.toString(maxFileSize));
+        }
+        if (clauses.isEmpty()) {
+            return null;
+        }
+        Bundle queryArgs = new Bundle();
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, String.join(" AND ", clauses));
+        queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, args.toArray(new String[0]));
+        return queryArgs;
+    }
+
+    private boolean acceptsDirectory(String relativePath) {
+        if (maxDepth >= 0 && depth(relativePath) >= maxDepth) {
+            // Nothing below it could be mirrored
+            return false;
+        }
+        return !matchesAny(excludes, relativePath);
+    }
+
+    private boolean acceptsFilePath(String relativePath) {
+        if (maxDepth >= 0 && depth(relativePath) > maxDepth) {
+            return false;
+        }
+        if (matchesAny(excludes, relativePath)) {
+            return false;
+        }
+        return includes.isEmpty() || matchesAny(includes, relativePath);
+    }
+
+    private boolean acceptsMimeType(@Nullable String mimeType) {
+        if (mimeTypes.isEmpty()) {
+            return true;
+        }
+        if (mimeType == null) {
+            return false;
+        }
+        String normalized = mimeType.toLowerCase(Locale.ROOT);
+        for (String allowed : mimeTypes) {
+            if (allowed.endsWith("/*") ? normalized.startsWith(allowed.substring(0, allowed.length() - 1)) : normalized.equals(allowed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesAny(List<PathMatcher> matchers, String relativePath) {
+        if (matchers.isEmpty()) {
+            return false;
+        }
+        Path path = FileSystems.getDefault().getPath(relativePath);
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int depth(String relativePath) {
+        int depth = 1;
+        for (int i = 0; i < relativePath.length(); i++) {
+            if (relativePath.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+}
@@ -0,0 +1,98 @@
+package org.estasney.android;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Observes the changes {@link MindRefRunner#mirrorDirectory} makes to App Storage.
+ * <p>
+ * Lets derived data (search index, catalog, ...) be maintained in the same pass as the mirror,
+ * instead of rescanning App Storage afterwards.
+ */
+public interface MindRefMirrorListener {
+
+    /**
+     * Called before the mirror visits anything. A staged mirror writes into a new root each time,
+     * so state kept relative to App Storage, and its files, should move to the given root.
+     *
+     * @param targetRoot - Root the mirror writes into
+     */
+    default void onMirrorStarted(Path targetRoot) throws IOException {
+    }
+
+    /**
+     * Called for every file visited by the mirror
+     *
+     * @param targetPath - Location of the file in App Storage
+     * @param srcFile    - Source file in External Storage
+     * @param changed    - true when the file was written during this mirror, false when it was already current
+     */
+    void onFileMirrored(Path targetPath, MindRefFileData srcFile, boolean changed) throws IOException;
+
+    /**
+     * Called after a file or directory no longer present in External Storage was removed from App Storage
+     *
+     * @param targetPath  - Location of the removed file or directory
+     * @param isDirectory - true when a directory, and everything below it, was removed
+     */
+    void onPathRemoved(Path targetPath, boolean isDirectory) throws IOException;
+
+    /**
+     * Called before the mirror records progress it can resume from. State derived from the files
+     * mirrored so far should be persisted, since a resumed mirror will not visit them again.
+     */
+    default void onCheckpoint() throws IOException {
+    }
+
+    /**
+     * Called once the whole tree has been mirrored
+     */
+    default void onMirrorFinished() throws IOException {
+    }
+
+    /**
+     * Combine several listeners into one, notified in list order
+     *
+     * @param listeners - Listeners to combine
+     * @return MindRefMirrorListener
+     */
+    static MindRefMirrorListener of(List<MindRefMirrorListener> listeners) {
+        return new MindRefMirrorListener() {
+            @Override
+            public void onMirrorStarted(Path targetRoot) throws IOException {
+                for (MindRefMirrorListener listener : listeners) {
+                    listener.onMirrorStarted(targetRoot);
+                }
+            }
+
+            @Override
+            public void onFileMirrored(Path targetPath, MindRefFileData srcFile, boolean changed) throws IOException {
+                for (MindRefMirrorListener listener : listeners) {
+                    listener.onFileMirrored(targetPath, srcFile, changed);
+                }
+            }
+
+            @Override
+            public void onPathRemoved(Path targetPath, boolean isDirectory) throws IOException {
+                for (MindRefMirrorListener listener : listeners) {
+                    listener.onPathRemoved(targetPath, isDirectory);
+                }
+            }
+
+            @Override
+            public void onCheckpoint() throws IOException {
+                for (MindRefMirrorListener listener : listeners) {
+                    listener.onCheckpoint();
+                }
+            }
+
+            @Override
+            public void onMirrorFinished() throws IOException {
+                for (MindRefMirrorListener listener : listeners) {
+                    listener.onMirrorFinished();
+                }
+            }
+        };
+    }
+}
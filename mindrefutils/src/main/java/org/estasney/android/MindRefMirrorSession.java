@@ -0,0 +1,228 @@
+package org.estasney.android;
+
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * State of a single run of {@link MindRefRunner#mirrorDirectory}.
+ * <p>
+ * Holds what the mirror is configured with (listener, concurrency, retries, checkpoint, filter, content store) and collects
+ * the items that failed. A failing file or directory is retried with exponential backoff when the
+ * provider failed ({@link MindRefProviderException}), and otherwise recorded here so the rest of the tree
+ * is still mirrored. Errors of local storage are not retried, they would fail the same way again.
+ */
+public class MindRefMirrorSession {
+    private static final String TAG = "MindRefMirrorSession";
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_INITIAL_BACKOFF_MS = 500;
+
+    final Path targetRoot;
+    @Nullable
+    MindRefMirrorListener listener;
+    @Nullable
+    MindRefConcurrencyController controller;
+    @Nullable
+    MindRefMirrorCheckpoint checkpoint;
+    @Nullable
+    MindRefMirrorFilter filter;
+    @Nullable
+    MindRefContentStore contentStore;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long initialBackoffMs = DEFAULT_INITIAL_BACKOFF_MS;
+    private final List<MindRefStats.Failure> failures = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * @param targetRoot - Root of the mirror in App Storage
+     */
+    public MindRefMirrorSession(File targetRoot) {
+        this.targetRoot = targetRoot.toPath();
+    }
+
+    /**
+     * @param listener - Notified of each file mirrored and each path removed
+     */
+    public MindRefMirrorSession setListener(@Nullable MindRefMirrorListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * @param controller - Bounds concurrent provider calls, files within a directory are copied concurrently through it
+     */
+    public MindRefMirrorSession setController(@Nullable MindRefConcurrencyController controller) {
+        this.controller = controller;
+        return this;
+    }
+
+    /**
+     * @param checkpoint - Records completed directories, and skips those a previous run completed
+     */
+    public MindRefMirrorSession setCheckpoint(@Nullable MindRefMirrorCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
+    /**
+     * @param filter - Limits what is mirrored, entries it excludes are neither copied nor removed as stale
+     */
+    public MindRefMirrorSession setFilter(@Nullable MindRefMirrorFilter filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * @param contentStore - Stores the files it handles once per distinct content. It must also be notified
+     *                     through the listener, so removed paths release their content
+     */
+    public MindRefMirrorSession setContentStore(@Nullable MindRefContentStore contentStore) {
+        this.contentStore = contentStore;
+        return this;
+    }
+
+    /**
+     * @param maxAttempts      - Attempts per item before it is recorded as failed, at least 1
+     * @param initialBackoffMs - Wait before the first retry, doubled for each further retry
+     */
+    public MindRefMirrorSession setRetry(int maxAttempts, long initialBackoffMs) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMs = initialBackoffMs;
+        return this;
+    }
+
+    /**
+     * @return Items that could not be mirrored, in the order they failed
+     */
+    public List<MindRefStats.Failure> getFailures() {
+        synchronized (failures) {
+            return new ArrayList<>(failures);
+        }
+    }
+
+    /**
+     * Complete the run: persist the listener's state and drop the checkpoint. A checkpoint only resumes
+     * a run that was interrupted, the next run after a finished one, failures or not, visits everything.
+     */
+    public void finish() throws IOException {
+        if (listener != null) {
+            listener.onMirrorFinished();
+        }
+        if (checkpoint != null) {
+            checkpoint.delete();
+        }
+    }
+
+    /**
+     * Throw the first failure, for callers expecting the mirror to fail as a whole
+     */
+    void throwIfFailed() throws IOException {
+        synchronized (failures) {
+            if (!failures.isEmpty()) {
+                MindRefStats.Failure first = failures.get(0);
+                throw new IOException("Failed to mirror " + first.path + ": " + first.error, first.cause);
+            }
+        }
+    }
+
+    void recordFailure(Path targetPath, Throwable cause) {
+        MindRefLog.w(TAG, "Failed to mirror {}: {}", targetPath, cause);
+        failures.add(new MindRefStats.Failure(relativize(targetPath), String.valueOf(cause.getMessage()), cause));
+    }
+
+    String relativize(Path targetPath) {
+        return targetRoot.relativize(targetPath).toString().replace('\\', '/');
+    }
+
+    /**
+     * Run a provider call through the controller, if any, retrying transient failures with backoff.
+     * The call runs on the controller's executor, so it is bounded along with the file copies, the
+     * caller waits for it.
+     *
+     * @param call - Provider call
+     * @return Result of the call
+     * @throws IOException - The last failure once attempts are exhausted, or the first permanent one
+     */
+    <T> T callWithRetry(Callable<T> call) throws IOException {
+        return retry(call, controller);
+    }
+
+    /**
+     * @param e       - Failure of an attempt
+     * @param attempt - Attempt that failed, from 1
+     * @return true if the item should be attempted again
+     */
+    boolean shouldRetry(Throwable e, int attempt) {
+        return attempt < maxAttempts && e instanceof MindRefProviderException;
+    }
+
+    /**
+     * Wait before the attempt after the given one, doubling each time.
+     * Callers must not hold a controller slot while waiting.
+     *
+     * @param attempt - Attempt that failed, from 1
+     * @throws InterruptedIOException - Interrupted while waiting
+     */
+    void backoff(int attempt) throws InterruptedIOException {
+        long backoffMs = initialBackoffMs << Math.min(attempt - 1, 20);
+        try {
+            Thread.sleep(backoffMs);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted mirroring");
+        }
+    }
+
+    private static <T> T await(ListenableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (Exception) cause;
+        }
+    }
+
+    private <T> T retry(Callable<T> call, @Nullable MindRefConcurrencyController through) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return through == null ? call.call() : await(through.submit(call));
+            } catch (InterruptedException | InterruptedIOException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted mirroring");
+            } catch (IOException e) {
+                if (!shouldRetry(e, attempt)) {
+                    throw e;
+                }
+                if (MindRefLog.isLoggable(Log.DEBUG)) {
+                    MindRefLog.d(TAG, "Retrying, attempt {} failed: {}", attempt, e);
+                }
+                backoff(attempt);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.estasney.android;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Mirrors several External Storage trees, each into its own App Storage folder, side by side.
+ * <p>
+ * Every root is mirrored at once, so syncing several costs about as much as the slowest one.
+ * Their provider calls, directory listings and file copies alike, share one bounded pool and are
+ * taken from each root in turn, so a large root doesn't hold up a small one. Each root keeps its own {@link MindRefConcurrencyController}, as roots
+ * may live with different providers that cope with very different loads.
+ * <p>
+ * Each root is a {@link MindRefUtils}, returned by {@link #addRoot}, through which it is configured
+ * (search index, filters, ...). Close this object, not the roots, when done.
+ *
+ * @noinspection unused
+ */
+public class MindRefMultiRoot implements AutoCloseable {
+    private static final String TAG = "MindRefMultiRoot";
+
+    private final Context mContext;
+    private final MindRefFairExecutor providerCalls;
+    // One thread per root walking its tree, the walks wait on provider calls run on providerCalls
+    private final ThreadPoolExecutor walkers;
+    private final Map<String, MindRefUtils> roots = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /**
+     * Receives the outcome of each root as it completes
+     */
+    public interface RootCallback {
+
+        void onRootComplete(String appStorageRoot, MindRefStats stats);
+
+        void onRootFailure(String appStorageRoot, Throwable t);
+    }
+
+    /**
+     * @param context            - Context
+     * @param maxConcurrentCalls - Provider calls in flight across all roots
+     */
+    public MindRefMultiRoot(Context context, int maxConcurrentCalls) {
+        this.mContext = context;
+        this.providerCalls = new MindRefFairExecutor("mindref-roots-provider", maxConcurrentCalls);
+        this.walkers = MindRefExecutors.newProviderPool("mindref-roots-walk");
+    }
+
+    /**
+     * Register an External Storage tree and the folder mirroring it
+     *
+     * @param externalStorageRoot - String representing the URI returned from user selecting document storage
+     * @param appStorageRoot      - String representing the Filepath to a folder that will mirror externalStorageRoot
+     * @return The root, for configuring it
+     */
+    public MindRefUtils addRoot(String externalStorageRoot, String appStorageRoot) {
+        synchronized (roots) {
+            if (roots.containsKey(appStorageRoot)) {
+                throw new IllegalArgumentException("Already registered: " + appStorageRoot);
+            }
+            MindRefUtils root = new MindRefUtils(externalStorageRoot, appStorageRoot, mContext,
+                    walkers, providerCalls.newLane(appStorageRoot), false);
+            roots.put(appStorageRoot, root);
+            MindRefLog.d(TAG, "addRoot - {} -> {}", externalStorageRoot, appStorageRoot);
+            return root;
+        }
+    }
+
+    /**
+     * @param appStorageRoot - Folder given to {@link #addRoot}
+     * @return The root, or null if not registered
+     */
+    @Nullable
+    public MindRefUtils getRoot(String appStorageRoot) {
+        return roots.get(appStorageRoot);
+    }
+
+    /**
+     * Mirror every root to App Storage at once, see {@link MindRefUtils#copyToAppStorage}
+     *
+     * @param key              - Arbitrary int, carried in the results
+     * @param callback         - Notified as each root completes, may be null
+     * @param callbackExecutor - Executor the callback is invoked on
+     * @return Future completing once every root has, with totals across roots. Failure paths are
+     * prefixed with their root, and a root that failed as a whole is reported as a failure of its folder
+     */
+    public ListenableFuture<MindRefStats> copyToAppStorageAsync(int key, @Nullable RootCallback callback, Executor callbackExecutor) {
+        long startTime = System.currentTimeMillis();
+        List<Map.Entry<String, MindRefUtils>> targets;
+        synchronized (roots) {
+            targets = new ArrayList<>(roots.entrySet());
+        }
+        MindRefLog.d(TAG, "copyToAppStorage - Start {} roots, Operation Key: {}", targets.size(), key);
+
+        LinkedHashMap<String, ListenableFuture<MindRefStats>> tasks = new LinkedHashMap<>();
+        for (Map.Entry<String, MindRefUtils> target : targets) {
+            tasks.put(target.getKey(), target.getValue().copyToAppStorageAsync(key));
+        }
+        return combine(key, startTime, tasks, callback, callbackExecutor);
+    }
+
+    /**
+     * Report each root's outcome to the callback, and total them once every root has completed
+     *
+     * @param tasks - Mirror of each root, by App Storage folder
+     */
+    static ListenableFuture<MindRefStats> combine(int key, long startTime, LinkedHashMap<String, ListenableFuture<MindRefStats>> tasks,
+                                                  @Nullable RootCallback callback, Executor callbackExecutor) {
+        for (Map.Entry<String, ListenableFuture<MindRefStats>> target : tasks.entrySet()) {
+            String appStorageRoot = target.getKey();
+            ListenableFuture<MindRefStats> task = target.getValue();
+            if (callback != null) {
+                Futures.addCallback(task, new FutureCallback<MindRefStats>() {
+                    @Override
+                    public void onSuccess(MindRefStats result) {
+                        callback.onRootComplete(appStorageRoot, result);
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull Throwable t) {
+                        callback.onRootFailure(appStorageRoot, t);
+                    }
+                }, callbackExecutor);
+            }
+        }
+
+        return Futures.whenAllComplete(tasks.values()).call(() -> {
+            long filesVisited = 0;
+            long filesWritten = 0;
+            long pathsRemoved = 0;
+            long bytesWritten = 0;
+            List<MindRefStats.Failure> failures = new ArrayList<>();
+            for (Map.Entry<String, ListenableFuture<MindRefStats>> target : tasks.entrySet()) {
+                String appStorageRoot = target.getKey();
+                try {
+                    MindRefStats stats = Futures.getDone(target.getValue());
+                    filesVisited += stats.filesVisited;
+                    filesWritten += stats.filesWritten;
+                    pathsRemoved += stats.pathsRemoved;
+                    bytesWritten += stats.bytesWritten;
+                    for (MindRefStats.Failure failure : stats.failures) {
+                        failures.add(new MindRefStats.Failure(appStorageRoot + "/" + failure.path, failure.error, failure.cause));
+                    }
+                } catch (ExecutionException | RuntimeException e) {
+                    Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                    failures.add(new MindRefStats.Failure(appStorageRoot, String.valueOf(cause.getMessage()), cause));
+                }
+            }
+            MindRefStats total = new MindRefStats(key, filesVisited, filesWritten, pathsRemoved, bytesWritten,
+                    System.currentTimeMillis() - startTime, failures);
+            MindRefLog.d(TAG, "copyToAppStorage - Finish {}", total);
+            return total;
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Cancel work in flight on every root and release the shared threads
+     */
+    @Override
+    public void close() {
+        List<MindRefUtils> targets;
+        synchronized (roots) {
+            targets = new ArrayList<>(roots.values());
+        }
+        for (MindRefUtils root : targets) {
+            root.close();
+        }
+        providerCalls.close();
+        walkers.shutdown();
+    }
+}
@@ -0,0 +1,86 @@
+package org.estasney.android;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An I/O error raised by a document provider, as opposed to local storage.
+ * <p>
+ * Providers fail intermittently (a cloud backed provider losing its connection, a pipe closing mid
+ * transfer), so these are worth retrying, while errors writing App Storage (no space, no permission)
+ * will fail the same way again. A missing document is reported as a plain {@link FileNotFoundException}.
+ * <p>
+ * ContentResolver reports a provider process that died or could not be reached as a
+ * {@link FileNotFoundException} too, having swallowed the {@code DeadObjectException}. Those are told
+ * apart by the platform's messages and reported as provider errors, since the provider is restarted
+ * on the next call.
+ */
+public class MindRefProviderException extends IOException {
+
+    public MindRefProviderException(String message) {
+        super(message);
+    }
+
+    public MindRefProviderException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    /**
+     * Open a document for reading, with errors raised while reading it reported as provider errors
+     *
+     * @param contentResolver - ContentResolver
+     * @param uri             - Document
+     * @return Stream over the document
+     * @throws FileNotFoundException    - Thrown when the document does not exist
+     * @throws MindRefProviderException - Thrown when the provider is unavailable or returns no stream
+     */
+    static InputStream openInputStream(ContentResolver contentResolver, Uri uri) throws IOException {
+        InputStream inputStream;
+        try {
+            inputStream = contentResolver.openInputStream(uri);
+        } catch (FileNotFoundException e) {
+            throw classify(e);
+        }
+        if (inputStream == null) {
+            throw new MindRefProviderException("Provider returned no stream for " + uri);
+        }
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                try {
+                    return super.read();
+                } catch (IOException e) {
+                    throw new MindRefProviderException("Provider failed reading " + uri, e);
+                }
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                try {
+                    return super.read(b, off, len);
+                } catch (IOException e) {
+                    throw new MindRefProviderException("Provider failed reading " + uri, e);
+                }
+            }
+        };
+    }
+
+    /**
+     * A provider that died or could not be reached, reported by ContentResolver as a missing document
+     *
+     * @param e - Raised opening a document
+     * @return MindRefProviderException when the provider was unavailable, e otherwise
+     */
+    static IOException classify(FileNotFoundException e) {
+        String message = e.getMessage();
+        if (message != null && (message.startsWith("Dead content provider") || message.startsWith("Failed opening content provider"))) {
+            return new MindRefProviderException(message, e);
+        }
+        return e;
+    }
+}
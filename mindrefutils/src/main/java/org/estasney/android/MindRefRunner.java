@@ -1,14 +1,20 @@
 package org.estasney.android;
 
 import static org.estasney.android.MindRefFileUtils.combinePath;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 import android.content.ContentResolver;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.ParcelFileDescriptor;
-import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import org.apache.commons.io.FileUtils;
 
@@ -16,30 +22,61 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Stream;
 
 public class MindRefRunner {
 
     private static final String TAG = "mindrefutils";
+    // Per-file events, a large mirror would otherwise log a line for every file
+    private static final MindRefLog.RateLimit FILE_LOG_LIMIT = new MindRefLog.RateLimit(20);
+
+    /**
+     * Directory under App Storage holding files derived from the mirror (index, catalog, ...).
+     * Never treated as stale by {@link #mirrorDirectory}.
+     */
+    public static final String METADATA_DIR_NAME = ".mindref";
+
+    /**
+     * Suffix of a file being copied into App Storage, moved over the target once complete
+     */
+    static final String PARTIAL_SUFFIX = ".mindref-partial";
 
-    public static void mirrorFile(MindRefFileData srcFile, File targetFile, ContentResolver contentResolver) throws IOException {
+    /**
+     * Copy a file from External Storage if it is missing from App Storage or older there.
+     * The copy is written beside the target and moved into place, so a failed copy never leaves
+     * a partial file that would look current to the next mirror.
+     *
+     * @param srcFile         File in External Storage
+     * @param targetFile      Location in App Storage
+     * @param contentResolver ContentResolver
+     * @return true if the file was written, false if it was already current
+     */
+    public static boolean mirrorFile(MindRefFileData srcFile, File targetFile, ContentResolver contentResolver) throws IOException {
         Path targetPath = targetFile.toPath();
         if (targetFile.exists()) {
             long srcMod = srcFile.lastModified;
             long tgtMod = targetFile.lastModified();
-            if (srcMod > tgtMod) {
-                try (InputStream inputStream = contentResolver.openInputStream(srcFile.uri)) {
-                    Files.copy(inputStream, targetPath, REPLACE_EXISTING);
-                }
+            if (srcMod <= tgtMod) {
+                return false;
             }
-        } else {
-            try (InputStream inputStream = contentResolver.openInputStream(srcFile.uri)) {
-                Files.copy(inputStream, targetPath);
+        }
+        Path partialPath = targetPath.resolveSibling(targetPath.getFileName() + PARTIAL_SUFFIX);
+        try {
+            try (InputStream inputStream = MindRefProviderException.openInputStream(contentResolver, srcFile.uri)) {
+                Files.copy(inputStream, partialPath, REPLACE_EXISTING);
             }
+            Files.move(partialPath, targetPath, REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partialPath);
         }
+        return true;
     }
 
     /**
@@ -51,71 +88,336 @@ public class MindRefRunner {
      * @param contentResolver ContentResolver
      * @throws IOException Thrown when the target path is invalid (not a directory)
      */
+    public static void mirrorDirectory(Uri sourceFolderUri, File targetDir, ContentResolver contentResolver) throws IOException {
+        mirrorDirectory(sourceFolderUri, targetDir, contentResolver, (MindRefMirrorListener) null);
+    }
 
+    /**
+     * @param sourceFolderUri Uri constructed from ACTION_OPEN_DOCUMENT_TREE - Normalized to Document
+     * @param targetDir       File path to copy to. This path should exist
+     * @param contentResolver ContentResolver
+     * @param listener        Notified of each file mirrored and each path removed, may be null
+     * @throws IOException Thrown when the target path is invalid (not a directory)
+     */
+    public static void mirrorDirectory(Uri sourceFolderUri, File targetDir, ContentResolver contentResolver,
+                                       @Nullable MindRefMirrorListener listener) throws IOException {
+        mirrorDirectory(sourceFolderUri, targetDir, contentResolver, listener, null);
+    }
 
+    /**
+     * @param sourceFolderUri Uri constructed from ACTION_OPEN_DOCUMENT_TREE - Normalized to Document
+     * @param targetDir       File path to copy to. This path should exist
+     * @param contentResolver ContentResolver
+     * @param listener        Notified of each file mirrored and each path removed, may be null.
+     *                        Called from the controller's threads when a controller is given
+     * @param controller      Bounds concurrent provider calls. Files within a directory are copied
+     *                        concurrently through it. May be null, copying one file at a time
+     * @throws IOException Thrown when the target path is invalid (not a directory), or the first
+     *                     item that could not be mirrored
+     */
+    public static void mirrorDirectory(Uri sourceFolderUri, File targetDir, ContentResolver contentResolver,
+                                       @Nullable MindRefMirrorListener listener,
+                                       @Nullable MindRefConcurrencyController controller) throws IOException {
+        MindRefMirrorSession session = new MindRefMirrorSession(targetDir)
+                .setListener(listener)
+                .setController(controller);
+        mirrorDirectory(sourceFolderUri, targetDir, contentResolver, session);
+        session.throwIfFailed();
+    }
 
-    public static void mirrorDirectory(Uri sourceFolderUri, File targetDir, ContentResolver contentResolver) throws IOException {
-
+    /**
+     * Mirror a directory, retrying transient failures and collecting the items that still fail into the
+     * session rather than failing the whole mirror. A directory that cannot be listed is left untouched.
+     * Call {@link MindRefMirrorSession#finish} once the root has been mirrored.
+     *
+     * @param sourceFolderUri Uri constructed from ACTION_OPEN_DOCUMENT_TREE - Normalized to Document
+     * @param targetDir       File path to copy to. This path should exist
+     * @param contentResolver ContentResolver
+     * @param session         Configuration and failures of this mirror
+     * @return true if everything below targetDir was mirrored
+     * @throws IOException Thrown when the target path is invalid (not a directory)
+     */
+    public static boolean mirrorDirectory(Uri sourceFolderUri, File targetDir, ContentResolver contentResolver,
+                                          MindRefMirrorSession session) throws IOException {
 
         long startTime  = System.currentTimeMillis();
-        MindRefFileData[] fileData = MindRefFileData.getChildrenFromUri(sourceFolderUri, contentResolver);
+        if (session.listener != null && targetDir.toPath().equals(session.targetRoot)) {
+            session.listener.onMirrorStarted(session.targetRoot);
+        }
+        MindRefMirrorFilter filter = session.filter;
+        Bundle queryArgs = filter == null ? null : filter.toQueryArgs();
+        MindRefFileData[] fileData;
+        try {
+            fileData = session.callWithRetry(() -> MindRefFileData.queryChildrenFromUri(sourceFolderUri, contentResolver, queryArgs));
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            // Without a listing we can't tell what is stale, leave this directory as it is
+            session.recordFailure(targetDir.toPath(), e);
+            return false;
+        }
         long endTime = System.currentTimeMillis();
-        Log.d(TAG, "getChildrenFromUri took: " + (endTime - startTime) + "ms for " + fileData.length + " items");
+        MindRefLog.d(TAG, "getChildrenFromUri took: {}ms for {} items", endTime - startTime, fileData.length);
         // Gather targetDir Children - if not present in sourceFolder, they are deleted
         ArrayDeque<Path> targetDirPathDeque = new ArrayDeque<>();
         try (Stream<Path> targetDirFiles = Files.list(targetDir.toPath())) {
             targetDirFiles.forEach(targetDirPathDeque::add);
         }
 
-        long[] mirrorTimes = new long[fileData.length];
-        int i = 0;
-
-        for (MindRefFileData srcChild : fileData) {
-            long startMirrorTime = System.currentTimeMillis();
-            Log.d(TAG, "Mirroring: " + srcChild.displayName + " to " + targetDir.getPath());
-            if (srcChild.isDirectory) {
-                Path targetChildDir = combinePath(targetDir.getPath(), srcChild.displayName);
-                File targetChildDirFile = targetChildDir.toFile();
-                if (!targetChildDirFile.exists()) {
-                    MindRefFileUtils.ensureDirectoryExists(targetChildDirFile);
+        MindRefMirrorListener listener = session.listener;
+        MindRefMirrorCheckpoint checkpoint = session.checkpoint;
+        boolean complete = true;
+        ArrayList<FileCopy> pendingFiles = new ArrayList<>();
+        boolean dispatched = false;
+        try {
+            for (MindRefFileData srcChild : fileData) {
+                Path targetChildPath = combinePath(targetDir.getPath(), srcChild.displayName);
+                if (filter != null && !filter.accepts(srcChild, session.relativize(targetChildPath))) {
+                    // Not mirrored, but any local copy is not stale either
+                    targetDirPathDeque.remove(targetChildPath);
+                    continue;
+                }
+                MindRefLog.d(TAG, FILE_LOG_LIMIT, "Mirroring: {} to {}", srcChild.displayName, targetDir.getPath());
+                if (srcChild.isDirectory) {
+                    Path targetChildDir = targetChildPath;
+                    targetDirPathDeque.remove(targetChildDir);
+                    if (checkpoint != null && checkpoint.isComplete(session.relativize(targetChildDir))) {
+                        MindRefLog.d(TAG, FILE_LOG_LIMIT, "Skipping, completed by an earlier run: {}", targetChildDir);
+                        continue;
+                    }
+                    File targetChildDirFile = targetChildDir.toFile();
+                    if (!targetChildDirFile.exists()) {
+                        MindRefFileUtils.ensureDirectoryExists(targetChildDirFile);
+                    }
+                    complete &= mirrorDirectory(srcChild.uri, targetChildDirFile, contentResolver, session);
+                } else {
+                    Path targetChild = targetChildPath;
+                    targetDirPathDeque.remove(targetChild);
+                    pendingFiles.add(startCopy(srcChild, targetChild, 1, contentResolver, session));
                 }
-                mirrorDirectory(srcChild.uri, targetChildDir.toFile(), contentResolver);
-                targetDirPathDeque.remove(targetChildDir);
-            } else {
-                Path targetChild = combinePath(targetDir.toString(), srcChild.displayName);
-                mirrorFile(srcChild, targetChild.toFile(), contentResolver);
-                targetDirPathDeque.remove(targetChild);
             }
-            long endMirrorTime = System.currentTimeMillis();
-            mirrorTimes[i] = endMirrorTime - startMirrorTime;
-            i += 1;
-        }
-
-        // Mean time for mirroring
-        if (mirrorTimes.length > 0) {
-            long meanMirrorTime = 0;
-            for (long time : mirrorTimes) {
-                meanMirrorTime += time;
+            dispatched = true;
+        } finally {
+            if (!dispatched) {
+                // Failing anyway, but don't return while copies are still writing
+                try {
+                    awaitAll(pendingFiles);
+                } catch (IOException ignored) {
+                    // The failure already propagating takes precedence
+                }
             }
-            meanMirrorTime /= mirrorTimes.length;
-            Log.d(TAG, "Mean mirror time: " + meanMirrorTime + "ms");
         }
+        complete &= awaitFiles(pendingFiles, contentResolver, session);
+        MindRefLog.d(TAG, "Mirrored {} items in {}ms", fileData.length, System.currentTimeMillis() - startTime);
 
         // Remove any children
         while (!targetDirPathDeque.isEmpty()) {
             Path hangingChildPath = targetDirPathDeque.pop();
+            if (METADATA_DIR_NAME.equals(hangingChildPath.getFileName().toString())) {
+                // Our own bookkeeping, never present in External Storage
+                continue;
+            }
 
             File hangingChildFile = hangingChildPath.toFile();
-            if (hangingChildFile.isDirectory()) {
-                Log.d(TAG, "Removing Dir: " + hangingChildPath);
+            boolean isDirectory = hangingChildFile.isDirectory();
+            if (filter != null && !filter.acceptsLocal(session.relativize(hangingChildPath), isDirectory, hangingChildFile.length())) {
+                // Outside the filter, so its absence from External Storage says nothing
+                continue;
+            }
+            if (isDirectory) {
+                MindRefLog.d(TAG, FILE_LOG_LIMIT, "Removing Dir: {}", hangingChildPath);
                 FileUtils.deleteDirectory(hangingChildFile);
             } else {
-                Log.d(TAG, "Removing File: " + hangingChildPath);
+                MindRefLog.d(TAG, FILE_LOG_LIMIT, "Removing File: {}", hangingChildPath);
                 Files.delete(hangingChildPath);
             }
+            if (listener != null) {
+                listener.onPathRemoved(hangingChildPath, isDirectory);
+            }
+
+        }
+
+        if (complete && checkpoint != null && !targetDir.toPath().equals(session.targetRoot)) {
+            checkpoint.markComplete(session.relativize(targetDir.toPath()), listener);
+        }
+        return complete;
+    }
+
+    /**
+     * Outcome of one attempt at mirroring a file
+     */
+    enum FileOutcome {
+        MIRRORED,
+        // Recorded in the session
+        FAILED,
+        // Failed in the provider, to be attempted again
+        RETRY
+    }
+
+    /**
+     * An attempt at mirroring a file, running or done
+     */
+    private static final class FileCopy {
+        final MindRefFileData srcFile;
+        final Path targetPath;
+        final int attempt;
+        final ListenableFuture<FileOutcome> task;
+
+        FileCopy(MindRefFileData srcFile, Path targetPath, int attempt, ListenableFuture<FileOutcome> task) {
+            this.srcFile = srcFile;
+            this.targetPath = targetPath;
+            this.attempt = attempt;
+            this.task = task;
+        }
+    }
+
+    /**
+     * Start an attempt at mirroring a file, through the controller if any, otherwise on the calling thread
+     */
+    private static FileCopy startCopy(MindRefFileData srcFile, Path targetPath, int attempt, ContentResolver contentResolver,
+                                      MindRefMirrorSession session) throws IOException {
+        MindRefConcurrencyController controller = session.controller;
+        ListenableFuture<FileOutcome> task;
+        if (controller == null) {
+            task = Futures.immediateFuture(mirrorFileAndNotify(srcFile, targetPath, contentResolver, session, null, attempt));
+        } else {
+            try {
+                task = controller.submit(permit -> mirrorFileAndNotify(srcFile, targetPath, contentResolver, session, permit, attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted mirroring " + targetPath);
+            }
+        }
+        return new FileCopy(srcFile, targetPath, attempt, task);
+    }
+
+    /**
+     * Wait for a directory's copies, then attempt again those the provider failed, after a backoff.
+     * The backoff is waited here, on the directory's thread, so it neither holds a controller slot
+     * nor counts towards the latency the controller measures.
+     *
+     * @return true if every file was mirrored
+     */
+    private static boolean awaitFiles(List<FileCopy> copies, ContentResolver contentResolver, MindRefMirrorSession session) throws IOException {
+        boolean complete = true;
+        List<FileCopy> pending = copies;
+        while (!pending.isEmpty()) {
+            awaitAll(pending);
+            ArrayList<FileCopy> retrying = new ArrayList<>();
+            for (FileCopy copy : pending) {
+                FileOutcome outcome = Futures.getUnchecked(copy.task);
+                if (outcome == FileOutcome.FAILED) {
+                    complete = false;
+                } else if (outcome == FileOutcome.RETRY) {
+                    retrying.add(copy);
+                }
+            }
+            if (retrying.isEmpty()) {
+                break;
+            }
+            int attempt = retrying.get(0).attempt;
+            MindRefLog.d(TAG, "Retrying {} files, attempt {} failed", retrying.size(), attempt);
+            session.backoff(attempt);
+            pending = new ArrayList<>(retrying.size());
+            boolean restarted = false;
+            try {
+                for (FileCopy copy : retrying) {
+                    pending.add(startCopy(copy.srcFile, copy.targetPath, copy.attempt + 1, contentResolver, session));
+                }
+                restarted = true;
+            } finally {
+                if (!restarted) {
+                    try {
+                        awaitAll(pending);
+                    } catch (IOException ignored) {
+                        // The failure already propagating takes precedence
+                    }
+                }
+            }
+        }
+        return complete;
+    }
 
+    /**
+     * Attempt to mirror one file. The slot is released once the file is written, before the listener
+     * is notified, and sampled by the bytes written.
+     *
+     * @param permit  - Slot the copy holds, null when not run through a controller
+     * @param attempt - Attempt at this file, from 1
+     */
+    static FileOutcome mirrorFileAndNotify(MindRefFileData srcFile, Path targetPath, ContentResolver contentResolver,
+                                                   MindRefMirrorSession session,
+                                                   @Nullable MindRefConcurrencyController.Permit permit, int attempt) throws IOException {
+        boolean changed;
+        MindRefContentStore contentStore = session.contentStore;
+        try {
+            if (contentStore != null && contentStore.handles(targetPath)) {
+                changed = contentStore.mirrorFile(srcFile, targetPath, contentResolver);
+            } else {
+                changed = mirrorFile(srcFile, targetPath.toFile(), contentResolver);
+            }
+        } catch (InterruptedIOException e) {
+            if (permit != null) {
+                permit.releaseUnmeasured();
+            }
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            boolean providerFailed = e instanceof MindRefProviderException;
+            if (permit != null) {
+                // Only the provider failing says something about its load
+                if (providerFailed) {
+                    permit.releaseFailed();
+                } else {
+                    permit.releaseUnmeasured();
+                }
+            }
+            if (session.shouldRetry(e, attempt)) {
+                MindRefLog.d(TAG, FILE_LOG_LIMIT, "Retrying {}: {}", targetPath, e);
+                return FileOutcome.RETRY;
+            }
+            session.recordFailure(targetPath, e);
+            return FileOutcome.FAILED;
         }
+        if (permit != null) {
+            if (changed) {
+                permit.release(Files.size(targetPath));
+            } else {
+                // Already current, only compared locally
+                permit.releaseUnmeasured();
+            }
+        }
+        if (session.listener != null) {
+            // The file itself is mirrored, a listener failing to follow it fails only this item
+            try {
+                session.listener.onFileMirrored(targetPath, srcFile, changed);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException | RuntimeException e) {
+                session.recordFailure(targetPath, e);
+                return FileOutcome.FAILED;
+            }
+        }
+        return FileOutcome.MIRRORED;
+    }
 
+    /**
+     * Wait for every copy to finish, then rethrow the first failure
+     */
+    private static void awaitAll(List<FileCopy> copies) throws IOException {
+        IOException failure = null;
+        for (FileCopy copy : copies) {
+            try {
+                Uninterruptibles.getUninterruptibly(copy.task);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    Throwable cause = e.getCause();
+                    failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
     }
 
     /**
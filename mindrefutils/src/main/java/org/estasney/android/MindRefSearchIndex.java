@@ -0,0 +1,519 @@
+package org.estasney.android;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Inverted index over the text files mirrored into App Storage.
+ * <p>
+ * Kept current by listening to {@link MindRefRunner#mirrorDirectory}: only files the mirror
+ * writes or removes are re-tokenized, so a sync costs in proportion to what changed. The whole
+ * index is held in memory and persisted to a single file under
+ * {@link MindRefRunner#METADATA_DIR_NAME} when the mirror finishes.
+ * <p>
+ * Each document records the modification time of the file it was indexed from. A file the mirror
+ * reports as unchanged is indexed again when its time differs, so changes the index missed (the
+ * process died before it was saved, the file was edited in place) are picked up on the next mirror.
+ * <p>
+ * Queries are whitespace separated clauses, all of which must match:
+ * <ul>
+ *     <li>{@code word} - documents containing the word</li>
+ *     <li>{@code wor*} - documents containing a word starting with the prefix</li>
+ *     <li>{@code "some words"} - documents containing the words consecutively</li>
+ * </ul>
+ */
+public class MindRefSearchIndex implements MindRefMirrorListener {
+    private static final String TAG = "MindRefSearchIndex";
+    public static final String INDEX_FILE_NAME = "search.idx";
+    private static final int MAGIC = 0x4d525349;
+    private static final int VERSION = 2;
+    // Version without modification times, read as unknown so each document is indexed again once
+    private static final int VERSION_WITHOUT_TIMES = 1;
+    /**
+     * Files larger than this are not indexed
+     */
+    private static final long MAX_INDEXED_SIZE = 4 * 1024 * 1024;
+    private static final String[] DEFAULT_EXTENSIONS = {"md", "markdown", "txt"};
+
+    // Both move to the root a staged mirror writes into
+    private Path root;
+    private Path indexPath;
+    private final Set<String> extensions;
+
+    // term -> (docId -> positions)
+    private final TreeMap<String, HashMap<Integer, int[]>> postings = new TreeMap<>();
+    // docId -> relative path, null once removed
+    private final ArrayList<String> docPaths = new ArrayList<>();
+    // docId -> modification time of the file when indexed, 0 if unknown
+    private final ArrayList<Long> docModified = new ArrayList<>();
+    private final HashMap<String, Integer> docIds = new HashMap<>();
+    // docId -> distinct terms, so removing a document does not walk the whole vocabulary
+    private final HashMap<Integer, String[]> docTerms = new HashMap<>();
+    private boolean dirty = false;
+
+    /**
+     * Open the index for an App Storage root, loading it from disk if present
+     *
+     * @param root - App Storage root, paths are indexed relative to it
+     * @throws IOException - Thrown when an existing index cannot be read
+     */
+    public MindRefSearchIndex(Path root) throws IOException {
+        this(root, DEFAULT_EXTENSIONS);
+    }
+
+    /**
+     * @param root       - App Storage root, paths are indexed relative to it
+     * @param extensions - File extensions (without dot) to index
+     * @throws IOException - Thrown when an existing index cannot be read
+     */
+    public MindRefSearchIndex(Path root, String... extensions) throws IOException {
+        this.root = root;
+        this.indexPath = root.resolve(MindRefRunner.METADATA_DIR_NAME).resolve(INDEX_FILE_NAME);
+        this.extensions = new HashSet<>();
+        for (String extension : extensions) {
+            this.extensions.add(extension.toLowerCase(Locale.ROOT));
+        }
+        if (Files.exists(indexPath)) {
+            try {
+                load();
+            } catch (IOException e) {
+                MindRefLog.w(TAG, "Discarding unreadable index: {}", e);
+                clear();
+                dirty = true;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onMirrorStarted(Path targetRoot) {
+        if (!targetRoot.equals(root)) {
+            root = targetRoot;
+            indexPath = root.resolve(MindRefRunner.METADATA_DIR_NAME).resolve(INDEX_FILE_NAME);
+            dirty = true;
+        }
+    }
+
+    @Override
+    public synchronized void onFileMirrored(Path targetPath, MindRefFileData srcFile, boolean changed) throws IOException {
+        String relativePath = relativize(targetPath);
+        Integer docId = docIds.get(relativePath);
+        if (!changed && docId != null && docModified.get(docId) == Files.getLastModifiedTime(targetPath).toMillis()) {
+            return;
+        }
+        indexFile(relativePath, targetPath);
+    }
+
+    @Override
+    public synchronized void onPathRemoved(Path targetPath, boolean isDirectory) {
+        String relativePath = relativize(targetPath);
+        if (!isDirectory) {
+            removeDocument(relativePath);
+            return;
+        }
+        String prefix = relativePath + "/";
+        for (String path : new ArrayList<>(docIds.keySet())) {
+            if (path.startsWith(prefix)) {
+                removeDocument(path);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onCheckpoint() throws IOException {
+        if (dirty) {
+            save();
+        }
+    }
+
+    @Override
+    public void onMirrorFinished() throws IOException {
+        onCheckpoint();
+    }
+
+    /**
+     * Run a query against the index
+     *
+     * @param query - Query, see class documentation for syntax
+     * @return Paths relative to the App Storage root, sorted
+     */
+    public synchronized List<String> search(String query) {
+        Set<Integer> matches = null;
+        for (String clause : parseClauses(query)) {
+            Set<Integer> clauseMatches;
+            if (clause.startsWith("\"")) {
+                clauseMatches = matchPhrase(tokenize(clause));
+            } else if (clause.endsWith("*")) {
+                clauseMatches = matchPrefix(normalize(clause.substring(0, clause.length() - 1)));
+            } else {
+                clauseMatches = matchPhrase(tokenize(clause));
+            }
+            if (matches == null) {
+                matches = clauseMatches;
+            } else {
+                matches.retainAll(clauseMatches);
+            }
+            if (matches.isEmpty()) {
+                break;
+            }
+        }
+        if (matches == null) {
+            return new ArrayList<>();
+        }
+        TreeSet<String> paths = new TreeSet<>();
+        for (int docId : matches) {
+            paths.add(docPaths.get(docId));
+        }
+        return new ArrayList<>(paths);
+    }
+
+    /**
+     * @return Number of documents currently indexed
+     */
+    public synchronized int size() {
+        return docIds.size();
+    }
+
+    /**
+     * Persist the index, replacing the previous file atomically
+     */
+    public synchronized void save() throws IOException {
+        compact();
+        MindRefFileUtils.ensureDirectoryExists(indexPath.getParent().toFile());
+        Path tempPath = indexPath.resolveSibling(INDEX_FILE_NAME + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeVarInt(out, docPaths.size());
+            for (int docId = 0; docId < docPaths.size(); docId++) {
+                writeString(out, docPaths.get(docId));
+                out.writeLong(docModified.get(docId));
+            }
+            writeVarInt(out, postings.size());
+            for (Map.Entry<String, HashMap<Integer, int[]>> term : postings.entrySet()) {
+                writeString(out, term.getKey());
+                HashMap<Integer, int[]> docs = term.getValue();
+                int[] sortedIds = new int[docs.size()];
+                int i = 0;
+                for (int docId : docs.keySet()) {
+                    sortedIds[i++] = docId;
+                }
+                Arrays.sort(sortedIds);
+                writeVarInt(out, sortedIds.length);
+                int previousDoc = 0;
+                for (int docId : sortedIds) {
+                    writeVarInt(out, docId - previousDoc);
+                    previousDoc = docId;
+                    int[] positions = docs.get(docId);
+                    writeVarInt(out, positions.length);
+                    int previousPosition = 0;
+                    for (int position : positions) {
+                        writeVarInt(out, position - previousPosition);
+                        previousPosition = position;
+                    }
+                }
+            }
+        }
+        Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+        MindRefLog.d(TAG, "save - {} documents, {} terms", docPaths.size(), postings.size());
+    }
+
+    /**
+     * Renumber documents so ids freed by removals do not take up space
+     */
+    private void compact() {
+        if (docIds.size() == docPaths.size()) {
+            return;
+        }
+        int[] remap = new int[docPaths.size()];
+        ArrayList<String> liveDocs = new ArrayList<>(docIds.size());
+        ArrayList<Long> liveModified = new ArrayList<>(docIds.size());
+        HashMap<Integer, String[]> liveTerms = new HashMap<>();
+        for (int docId = 0; docId < docPaths.size(); docId++) {
+            String path = docPaths.get(docId);
+            if (path == null) {
+                continue;
+            }
+            remap[docId] = liveDocs.size();
+            liveTerms.put(liveDocs.size(), docTerms.get(docId));
+            liveDocs.add(path);
+            liveModified.add(docModified.get(docId));
+        }
+        for (Map.Entry<String, HashMap<Integer, int[]>> term : postings.entrySet()) {
+            HashMap<Integer, int[]> remapped = new HashMap<>();
+            for (Map.Entry<Integer, int[]> doc : term.getValue().entrySet()) {
+                remapped.put(remap[doc.getKey()], doc.getValue());
+            }
+            term.setValue(remapped);
+        }
+        docPaths.clear();
+        docPaths.addAll(liveDocs);
+        docModified.clear();
+        docModified.addAll(liveModified);
+        docIds.clear();
+        for (int docId = 0; docId < docPaths.size(); docId++) {
+            docIds.put(docPaths.get(docId), docId);
+        }
+        docTerms.clear();
+        docTerms.putAll(liveTerms);
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version != VERSION && version != VERSION_WITHOUT_TIMES) {
+                throw new IOException("Unrecognized index format: " + indexPath);
+            }
+            int docCount = readVarInt(in);
+            for (int docId = 0; docId < docCount; docId++) {
+                String path = readString(in);
+                docPaths.add(path);
+                docModified.add(version == VERSION ? in.readLong() : 0L);
+                docIds.put(path, docId);
+            }
+            int termCount = readVarInt(in);
+            for (int t = 0; t < termCount; t++) {
+                String term = readString(in);
+                int termDocs = readVarInt(in);
+                HashMap<Integer, int[]> docs = new HashMap<>(termDocs * 2);
+                int docId = 0;
+                for (int d = 0; d < termDocs; d++) {
+                    docId += readVarInt(in);
+                    int[] positions = new int[readVarInt(in)];
+                    int position = 0;
+                    for (int p = 0; p < positions.length; p++) {
+                        position += readVarInt(in);
+                        positions[p] = position;
+                    }
+                    docs.put(docId, positions);
+                }
+                postings.put(term, docs);
+            }
+        }
+        HashMap<Integer, ArrayList<String>> termsByDoc = new HashMap<>();
+        for (Map.Entry<String, HashMap<Integer, int[]>> term : postings.entrySet()) {
+            for (int docId : term.getValue().keySet()) {
+                termsByDoc.computeIfAbsent(docId, k -> new ArrayList<>()).add(term.getKey());
+            }
+        }
+        for (Map.Entry<Integer, ArrayList<String>> doc : termsByDoc.entrySet()) {
+            docTerms.put(doc.getKey(), doc.getValue().toArray(new String[0]));
+        }
+        dirty = false;
+    }
+
+    private void clear() {
+        postings.clear();
+        docPaths.clear();
+        docModified.clear();
+        docIds.clear();
+        docTerms.clear();
+    }
+
+    private void indexFile(String relativePath, Path targetPath) throws IOException {
+        removeDocument(relativePath);
+        if (!extensions.contains(MindRefFileUtils.getFileExt(relativePath)) || Files.size(targetPath) > MAX_INDEXED_SIZE) {
+            return;
+        }
+        // Taken before reading, so a change made while reading is picked up next time
+        long lastModified = Files.getLastModifiedTime(targetPath).toMillis();
+        String text = new String(Files.readAllBytes(targetPath), StandardCharsets.UTF_8);
+        List<String> tokens = tokenize(text);
+
+        int docId = docPaths.size();
+        docPaths.add(relativePath);
+        docModified.add(lastModified);
+        docIds.put(relativePath, docId);
+
+        HashMap<String, ArrayList<Integer>> termPositions = new HashMap<>();
+        for (int position = 0; position < tokens.size(); position++) {
+            termPositions.computeIfAbsent(tokens.get(position), k -> new ArrayList<>()).add(position);
+        }
+        for (Map.Entry<String, ArrayList<Integer>> entry : termPositions.entrySet()) {
+            ArrayList<Integer> positionList = entry.getValue();
+            int[] positions = new int[positionList.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = positionList.get(i);
+            }
+            postings.computeIfAbsent(entry.getKey(), k -> new HashMap<>()).put(docId, positions);
+        }
+        docTerms.put(docId, termPositions.keySet().toArray(new String[0]));
+        dirty = true;
+    }
+
+    private void removeDocument(String relativePath) {
+        Integer docId = docIds.remove(relativePath);
+        if (docId == null) {
+            return;
+        }
+        docPaths.set(docId, null);
+        String[] terms = docTerms.remove(docId);
+        if (terms != null) {
+            for (String term : terms) {
+                HashMap<Integer, int[]> docs = postings.get(term);
+                if (docs != null && docs.remove(docId) != null && docs.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+        dirty = true;
+    }
+
+    private Set<Integer> matchPrefix(String prefix) {
+        HashSet<Integer> matches = new HashSet<>();
+        if (prefix.isEmpty()) {
+            return matches;
+        }
+        NavigableMap<String, HashMap<Integer, int[]>> terms = postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        for (HashMap<Integer, int[]> docs : terms.values()) {
+            matches.addAll(docs.keySet());
+        }
+        return matches;
+    }
+
+    private Set<Integer> matchPhrase(List<String> terms) {
+        HashSet<Integer> matches = new HashSet<>();
+        if (terms.isEmpty()) {
+            return matches;
+        }
+        ArrayList<HashMap<Integer, int[]>> termDocs = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            HashMap<Integer, int[]> docs = postings.get(term);
+            if (docs == null) {
+                return matches;
+            }
+            termDocs.add(docs);
+        }
+        for (Map.Entry<Integer, int[]> first : termDocs.get(0).entrySet()) {
+            int docId = first.getKey();
+            for (int start : first.getValue()) {
+                if (phraseAt(termDocs, docId, start)) {
+                    matches.add(docId);
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static boolean phraseAt(ArrayList<HashMap<Integer, int[]>> termDocs, int docId, int start) {
+        for (int offset = 1; offset < termDocs.size(); offset++) {
+            int[] positions = termDocs.get(offset).get(docId);
+            if (positions == null || Arrays.binarySearch(positions, start + offset) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String relativize(Path targetPath) {
+        return root.relativize(targetPath).toString().replace('\\', '/');
+    }
+
+    /**
+     * Split a query into clauses, keeping quoted phrases together
+     */
+    static List<String> parseClauses(String query) {
+        ArrayList<String> clauses = new ArrayList<>();
+        int i = 0;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"') {
+                int end = query.indexOf('"', i + 1);
+                if (end < 0) {
+                    end = query.length();
+                }
+                clauses.add(query.substring(i, end));
+                i = end + 1;
+            } else {
+                int end = i;
+                while (end < query.length() && !Character.isWhitespace(query.charAt(end))) {
+                    end++;
+                }
+                clauses.add(query.substring(i, end));
+                i = end;
+            }
+        }
+        return clauses;
+    }
+
+    /**
+     * Lower case words made of letters and digits
+     */
+    static List<String> tokenize(String text) {
+        ArrayList<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static String normalize(String term) {
+        List<String> tokens = tokenize(term);
+        return tokens.isEmpty() ? "" : tokens.get(0);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 28) {
+                throw new IOException("Malformed varint");
+            }
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,225 @@
+package org.estasney.android;
+
+import androidx.annotation.Nullable;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Versioned snapshots of App Storage, for mirrors that publish atomically.
+ * <p>
+ * The App Storage root becomes a symbolic link to the current snapshot, kept beside it in
+ * {@code .<root name>.snapshots}. A staged mirror writes into a staging tree there, then
+ * {@link #publish} renames it to the next version and swaps the link in a single rename, so a reader
+ * resolving a path through the root sees either the old tree or the new one, never a mix of the two.
+ * A reader walking many files can resolve {@link #current} once and read from that snapshot.
+ * <p>
+ * The staging tree starts as a copy of the current snapshot made of hard links, so preparing it costs
+ * one link per file rather than copying content. The mirror replaces files by moving new ones into
+ * place, leaving the linked originals in the published snapshot unchanged. Metadata under
+ * {@link MindRefRunner#METADATA_DIR_NAME} is copied instead, apart from stored content and thumbnails,
+ * which are never rewritten once created. A checkpoint is never carried into a new staging tree.
+ * <p>
+ * Published snapshots are read-only. A file shares its inode with every snapshot it was linked into, so
+ * modifying it in place changes all of them, including the previous snapshot and the staging tree.
+ * Files must be replaced by moving a new file over them.
+ * <p>
+ * The previous snapshot is kept for readers still using it, older ones are removed on publish.
+ */
+public class MindRefSnapshots {
+    private static final String TAG = "MindRefSnapshots";
+    private static final String STAGING_DIR_NAME = "staging";
+    private static final String VERSION_PREFIX = "v";
+    private static final int RETAINED_PREVIOUS = 1;
+
+    private final Path root;
+    private final Path snapshotsDir;
+
+    /**
+     * @param root - App Storage root, replaced by a link to the current snapshot on the first publish
+     */
+    public MindRefSnapshots(Path root) {
+        this.root = root;
+        this.snapshotsDir = root.resolveSibling("." + root.getFileName() + ".snapshots");
+    }
+
+    /**
+     * @return Directory of the snapshot currently published, or the root itself before the first publish
+     */
+    public Path current() throws IOException {
+        return root.toRealPath();
+    }
+
+    /**
+     * Directory a staged mirror writes into. A staging tree left by an interrupted mirror is reused,
+     * along with its checkpoint, otherwise a new one is linked from the current snapshot.
+     * <p>
+     * There is a single staging tree, so a mirror should hold this object's lock from preparing it
+     * until {@link #publish}, keeping overlapping mirrors from staging into it at once.
+     *
+     * @return Staging directory
+     */
+    public synchronized Path prepareStaging() throws IOException {
+        Path staging = snapshotsDir.resolve(STAGING_DIR_NAME);
+        if (Files.isDirectory(staging)) {
+            MindRefLog.d(TAG, "prepareStaging - Resuming {}", staging);
+            return staging;
+        }
+        MindRefFileUtils.ensureDirectoryExists(snapshotsDir.toFile());
+        // Built aside and renamed, so an interrupted clone is never mistaken for a complete one
+        Path cloning = snapshotsDir.resolve(STAGING_DIR_NAME + ".tmp");
+        if (Files.exists(cloning)) {
+            FileUtils.deleteDirectory(cloning.toFile());
+        }
+        if (Files.isDirectory(root)) {
+            long startTime = System.currentTimeMillis();
+            linkTree(current(), cloning);
+            MindRefLog.d(TAG, "prepareStaging - Linked current snapshot in {}ms", System.currentTimeMillis() - startTime);
+        } else {
+            Files.createDirectories(cloning);
+        }
+        Files.move(cloning, staging, StandardCopyOption.ATOMIC_MOVE);
+        return staging;
+    }
+
+    /**
+     * Make the staging tree the current snapshot
+     *
+     * @return Directory of the published snapshot
+     */
+    public synchronized Path publish() throws IOException {
+        Path staging = snapshotsDir.resolve(STAGING_DIR_NAME);
+        if (!Files.isDirectory(staging)) {
+            throw new IOException("Nothing staged to publish: " + staging);
+        }
+        List<Long> versions = versions();
+        long next = versions.isEmpty() ? 1 : versions.get(versions.size() - 1) + 1;
+        Path published = snapshotsDir.resolve(VERSION_PREFIX + next);
+        // A run that failed part way through must not hand its checkpoint to the next one
+        Files.deleteIfExists(staging.resolve(MindRefRunner.METADATA_DIR_NAME).resolve(MindRefMirrorCheckpoint.CHECKPOINT_FILE_NAME));
+        Files.move(staging, published, StandardCopyOption.ATOMIC_MOVE);
+
+        if (Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+            // First publish, the root is still a plain directory. Renaming it away leaves the root
+            // missing until the link below is in place, this happens once.
+            Path adopted = snapshotsDir.resolve(VERSION_PREFIX + 0);
+            Files.move(root, adopted, StandardCopyOption.ATOMIC_MOVE);
+            MindRefLog.i(TAG, "publish - Moved existing {} to {}", root, adopted);
+        }
+        Path link = root.resolveSibling(root.getFileName() + ".link");
+        Files.deleteIfExists(link);
+        Files.createSymbolicLink(link, root.getParent().relativize(published));
+        Files.move(link, root, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        MindRefLog.d(TAG, "publish - {} now points to {}", root, published);
+
+        prune(next);
+        return published;
+    }
+
+    private void prune(long published) throws IOException {
+        for (long version : versions()) {
+            if (version < published - RETAINED_PREVIOUS) {
+                Path old = snapshotsDir.resolve(VERSION_PREFIX + version);
+                MindRefLog.d(TAG, "prune - Removing {}", old);
+                FileUtils.deleteDirectory(old.toFile());
+            }
+        }
+    }
+
+    /**
+     * @return Published versions, ascending
+     */
+    private List<Long> versions() throws IOException {
+        ArrayList<Long> versions = new ArrayList<>();
+        if (!Files.isDirectory(snapshotsDir)) {
+            return versions;
+        }
+        try (Stream<Path> children = Files.list(snapshotsDir)) {
+            children.forEach(child -> {
+                Long version = parseVersion(child.getFileName().toString());
+                if (version != null) {
+                    versions.add(version);
+                }
+            });
+        }
+        versions.sort(null);
+        return versions;
+    }
+
+    @Nullable
+    private static Long parseVersion(String name) {
+        if (!name.startsWith(VERSION_PREFIX)) {
+            return null;
+        }
+        try {
+            return Long.parseLong(name.substring(VERSION_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Recreate a tree with hard links to its files, copying where links are unsupported.
+     * Mutable metadata is copied, partial files from an interrupted copy and checkpoints are left behind.
+     */
+    static void linkTree(Path source, Path target) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path relative = source.relativize(file);
+                String name = file.getFileName().toString();
+                if (name.endsWith(MindRefRunner.PARTIAL_SUFFIX) || isCheckpoint(relative)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                Path linked = target.resolve(relative.toString());
+                if (isMutableMetadata(relative)) {
+                    Files.copy(file, linked, StandardCopyOption.COPY_ATTRIBUTES);
+                    return FileVisitResult.CONTINUE;
+                }
+                try {
+                    Files.createLink(linked, file);
+                } catch (IOException | UnsupportedOperationException e) {
+                    Files.copy(file, linked, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static boolean isCheckpoint(Path relative) {
+        return relative.getNameCount() == 2 && relative.getName(0).toString().equals(MindRefRunner.METADATA_DIR_NAME)
+                && relative.getName(1).toString().equals(MindRefMirrorCheckpoint.CHECKPOINT_FILE_NAME);
+    }
+
+    /**
+     * Metadata files other than stored content and thumbnails, which the mirror may rewrite
+     */
+    static boolean isMutableMetadata(Path relative) {
+        if (relative.getNameCount() < 2 || !relative.getName(0).toString().equals(MindRefRunner.METADATA_DIR_NAME)) {
+            return false;
+        }
+        String dir = relative.getName(1).toString();
+        String name = relative.getFileName().toString();
+        if (relative.getNameCount() == 3 && dir.equals(MindRefContentStore.OBJECTS_DIR_NAME)) {
+            return name.startsWith(MindRefContentStore.REFS_FILE_NAME);
+        }
+        return relative.getNameCount() == 2 || !dir.equals(MindRefThumbnails.THUMBNAILS_DIR_NAME);
+    }
+}
@@ -0,0 +1,106 @@
+package org.estasney.android;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a single copy operation, returned by the futures from
+ * {@link MindRefUtils#copyToAppStorageAsync} and {@link MindRefUtils#copyToExternalStorageAsync}
+ */
+public class MindRefStats {
+    /**
+     * Key the operation was started with
+     */
+    public final int key;
+    /**
+     * Files examined, whether or not they needed copying
+     */
+    public final long filesVisited;
+    public final long filesWritten;
+    public final long pathsRemoved;
+    public final long bytesWritten;
+    public final long elapsedMs;
+    /**
+     * Items that could not be copied. The rest of the operation still completed.
+     */
+    public final List<Failure> failures;
+
+    public MindRefStats(int key, long filesVisited, long filesWritten, long pathsRemoved, long bytesWritten, long elapsedMs) {
+        this(key, filesVisited, filesWritten, pathsRemoved, bytesWritten, elapsedMs, Collections.emptyList());
+    }
+
+    public MindRefStats(int key, long filesVisited, long filesWritten, long pathsRemoved, long bytesWritten, long elapsedMs,
+                        List<Failure> failures) {
+        this.key = key;
+        this.filesVisited = filesVisited;
+        this.filesWritten = filesWritten;
+        this.pathsRemoved = pathsRemoved;
+        this.bytesWritten = bytesWritten;
+        this.elapsedMs = elapsedMs;
+        this.failures = Collections.unmodifiableList(new ArrayList<>(failures));
+    }
+
+    @Override
+    public String toString() {
+        return "MindRefStats{key=" + key + ", filesVisited=" + filesVisited + ", filesWritten=" + filesWritten
+                + ", pathsRemoved=" + pathsRemoved + ", bytesWritten=" + bytesWritten + ", elapsedMs=" + elapsedMs
+                + ", failures=" + failures.size() + "}";
+    }
+
+    /**
+     * A file or directory that could not be copied
+     */
+    public static final class Failure {
+        /**
+         * Path relative to the App Storage root, '/' separated
+         */
+        public final String path;
+        public final String error;
+        public final Throwable cause;
+
+        public Failure(String path, String error, Throwable cause) {
+            this.path = path;
+            this.error = error;
+            this.cause = cause;
+        }
+    }
+
+    /**
+     * Tallies a mirror as it runs
+     */
+    static class Collector implements MindRefMirrorListener {
+        private final int key;
+        private final long startTime = System.currentTimeMillis();
+        private long filesVisited = 0;
+        private long filesWritten = 0;
+        private long pathsRemoved = 0;
+        private long bytesWritten = 0;
+
+        Collector(int key) {
+            this.key = key;
+        }
+
+        @Override
+        public synchronized void onFileMirrored(Path targetPath, MindRefFileData srcFile, boolean changed) throws IOException {
+            filesVisited++;
+            if (changed) {
+                filesWritten++;
+                bytesWritten += Files.size(targetPath);
+            }
+        }
+
+        @Override
+        public synchronized void onPathRemoved(Path targetPath, boolean isDirectory) {
+            pathsRemoved++;
+        }
+
+        synchronized MindRefStats build(List<Failure> failures) {
+            return new MindRefStats(key, filesVisited, filesWritten, pathsRemoved, bytesWritten,
+                    System.currentTimeMillis() - startTime, failures);
+        }
+    }
+}
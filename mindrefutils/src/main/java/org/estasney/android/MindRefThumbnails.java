@@ -0,0 +1,414 @@
+package org.estasney.android;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.provider.DocumentsContract;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Downsampled copies of images, small enough to decode for a grid of tiles.
+ * <p>
+ * Thumbnails are kept under {@link MindRefRunner#METADATA_DIR_NAME}/thumbnails, named by document and
+ * modification time, so one is only generated again once its image changes. Images mirrored are
+ * thumbnailed by {@link #generatePending} once the mirror is complete, so decoding never holds up a
+ * transfer or the mirror's completion, and any other on first request. The thumbnail of each mirrored
+ * image is recorded in an index beside the directory, and removed along with the image. The provider's own thumbnail is used when it offers one, otherwise the image is decoded at
+ * the coarsest sampling that still covers the target size.
+ * <p>
+ * Thumbnails are a cache, an image that cannot be thumbnailed during a mirror is logged and skipped.
+ * <p>
+ * A thumbnail has its smaller side scaled to the target size (or less, for smaller images),
+ * so it fills a square tile of that size.
+ */
+public class MindRefThumbnails implements MindRefMirrorListener {
+    private static final String TAG = "MindRefThumbnails";
+    private static final MindRefLog.RateLimit FILE_LOG_LIMIT = new MindRefLog.RateLimit(20);
+    public static final String THUMBNAILS_DIR_NAME = "thumbnails";
+    public static final String INDEX_FILE_NAME = "thumbnails.index";
+    public static final int DEFAULT_TARGET_SIZE = 256;
+    private static final int JPEG_QUALITY = 85;
+
+    private final Path root;
+    private final int targetSize;
+    private final ContentResolver contentResolver;
+    // Both move to the root a staged mirror writes into
+    private volatile Path mirrorRoot;
+    private Path indexPath;
+    // Thumbnail of each mirrored image by path, so removing an image removes its thumbnail
+    private final TreeMap<String, String> thumbnailNames = new TreeMap<>();
+    // Paths holding each thumbnail's document, two while a moved document is mirrored at its new path
+    private final HashMap<String, Integer> nameCounts = new HashMap<>();
+    private boolean dirty = false;
+    // Images mirrored without a thumbnail, generated once the mirror is complete
+    private final ConcurrentLinkedQueue<Pending> pending = new ConcurrentLinkedQueue<>();
+
+    private static final class Pending {
+        final String relativePath;
+        final MindRefFileData srcFile;
+        final String thumbnailName;
+
+        Pending(String relativePath, MindRefFileData srcFile, String thumbnailName) {
+            this.relativePath = relativePath;
+            this.srcFile = srcFile;
+            this.thumbnailName = thumbnailName;
+        }
+    }
+
+    /**
+     * @param root            - App Storage root
+     * @param targetSize      - Size in pixels of the smaller side of a thumbnail
+     * @param contentResolver - ContentResolver
+     */
+    public MindRefThumbnails(Path root, int targetSize, ContentResolver contentResolver) {
+        if (targetSize < 1) {
+            throw new IllegalArgumentException("targetSize must be positive: " + targetSize);
+        }
+        this.root = root;
+        this.mirrorRoot = root;
+        this.indexPath = indexPath(root);
+        this.targetSize = targetSize;
+        this.contentResolver = contentResolver;
+        try {
+            load();
+        } catch (IOException e) {
+            MindRefLog.w(TAG, "Discarding unreadable thumbnail index: {}", e);
+            thumbnailNames.clear();
+            nameCounts.clear();
+            dirty = true;
+        }
+    }
+
+    /**
+     * Thumbnail of an image in External Storage, generated if not cached. Slow when generated.
+     *
+     * @param image - Image in External Storage
+     * @return Location of the thumbnail, null if the image cannot be decoded
+     * @throws IOException - Thrown when the thumbnail cannot be written
+     */
+    @Nullable
+    public Path get(MindRefFileData image) throws IOException {
+        Path thumbnailPath = thumbnailPath(thumbnailsDir(root), image);
+        if (Files.exists(thumbnailPath)) {
+            return thumbnailPath;
+        }
+        return generate(image, thumbnailPath, () -> contentResolver.openInputStream(image.uri)) ? thumbnailPath : null;
+    }
+
+    /**
+     * Generate the thumbnails of images the last mirror wrote without one. Called once the mirror is
+     * complete, and published when staged, as images are read through the App Storage root. Slow, run
+     * in the background. Images that cannot be thumbnailed are logged and skipped.
+     */
+    public void generatePending() {
+        Pending next;
+        while ((next = pending.poll()) != null) {
+            Path imagePath = root.resolve(next.relativePath);
+            Path thumbnailPath = thumbnailsDir(root).resolve(next.thumbnailName);
+            if (Files.exists(thumbnailPath)) {
+                continue;
+            }
+            try {
+                // Decoded from the mirrored copy rather than downloaded again
+                generate(next.srcFile, thumbnailPath, () -> Files.newInputStream(imagePath));
+            } catch (IOException | RuntimeException e) {
+                MindRefLog.d(TAG, FILE_LOG_LIMIT, "generatePending - No thumbnail for {}: {}", next.relativePath, e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onMirrorStarted(Path targetRoot) {
+        if (!targetRoot.equals(mirrorRoot)) {
+            mirrorRoot = targetRoot;
+            indexPath = indexPath(targetRoot);
+            dirty = true;
+        }
+        // Left by an interrupted mirror, those images are thumbnailed on request instead
+        pending.clear();
+    }
+
+    @Override
+    public void onFileMirrored(Path targetPath, MindRefFileData srcFile, boolean changed) throws IOException {
+        if (srcFile.mimeType == null || !srcFile.mimeType.startsWith("image")) {
+            return;
+        }
+        String relativePath = relativize(targetPath);
+        String thumbnailName = thumbnailName(srcFile);
+        synchronized (this) {
+            String previous = thumbnailNames.put(relativePath, thumbnailName);
+            if (!thumbnailName.equals(previous)) {
+                nameCounts.merge(thumbnailName, 1, Integer::sum);
+                if (previous != null) {
+                    release(previous);
+                }
+                dirty = true;
+            }
+        }
+        if (!Files.exists(thumbnailsDir(mirrorRoot).resolve(thumbnailName))) {
+            pending.add(new Pending(relativePath, srcFile, thumbnailName));
+        }
+    }
+
+    @Override
+    public synchronized void onPathRemoved(Path targetPath, boolean isDirectory) {
+        String relativePath = relativize(targetPath);
+        if (!isDirectory) {
+            String removed = thumbnailNames.remove(relativePath);
+            if (removed != null) {
+                release(removed);
+                dirty = true;
+            }
+            return;
+        }
+        // Paths are sorted, so everything below the directory is contiguous
+        String prefix = relativePath + "/";
+        Map<String, String> removed = thumbnailNames.subMap(prefix, prefix + Character.MAX_VALUE);
+        for (String thumbnailName : removed.values()) {
+            release(thumbnailName);
+        }
+        dirty |= !removed.isEmpty();
+        removed.clear();
+    }
+
+    @Override
+    public synchronized void onCheckpoint() throws IOException {
+        if (dirty) {
+            save();
+        }
+    }
+
+    @Override
+    public void onMirrorFinished() throws IOException {
+        onCheckpoint();
+    }
+
+    /**
+     * Drop a path's hold on a thumbnail, deleting it once no path holds it. Caller holds the lock.
+     */
+    private void release(String thumbnailName) {
+        Integer count = nameCounts.get(thumbnailName);
+        if (count != null && count > 1) {
+            nameCounts.put(thumbnailName, count - 1);
+            return;
+        }
+        nameCounts.remove(thumbnailName);
+        try {
+            Files.deleteIfExists(thumbnailsDir(mirrorRoot).resolve(thumbnailName));
+        } catch (IOException e) {
+            MindRefLog.d(TAG, FILE_LOG_LIMIT, "release - Cannot remove {}: {}", thumbnailName, e);
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(indexPath)) {
+            return;
+        }
+        for (String line : Files.readAllLines(indexPath, StandardCharsets.UTF_8)) {
+            // Name first, paths may contain tabs
+            String[] fields = line.split("\\t", 2);
+            if (fields.length != 2) {
+                continue;
+            }
+            if (thumbnailNames.put(fields[1], fields[0]) == null) {
+                nameCounts.merge(fields[0], 1, Integer::sum);
+            }
+        }
+    }
+
+    private void save() throws IOException {
+        MindRefFileUtils.ensureDirectoryExists(indexPath.getParent().toFile());
+        Path tempPath = indexPath.resolveSibling(INDEX_FILE_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> entry : thumbnailNames.entrySet()) {
+                writer.write(entry.getValue() + "\t" + entry.getKey() + "\n");
+            }
+        }
+        Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+
+    private String relativize(Path targetPath) {
+        return mirrorRoot.relativize(targetPath).toString().replace('\\', '/');
+    }
+
+    /**
+     * Remove every thumbnail, including those of images no longer in External Storage
+     *
+     * @throws IOException - Thrown when a thumbnail cannot be removed
+     */
+    public void clear() throws IOException {
+        Path dir = thumbnailsDir(root);
+        if (Files.isDirectory(dir)) {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
+    private boolean generate(MindRefFileData image, Path thumbnailPath, MindRefContentStore.ContentSource source) throws IOException {
+        Bitmap bitmap = loadProviderThumbnail(image);
+        if (bitmap == null) {
+            bitmap = decodeSampled(source);
+        }
+        if (bitmap == null) {
+            MindRefLog.d(TAG, FILE_LOG_LIMIT, "generate - Cannot decode {}", image.displayName);
+            return false;
+        }
+        try {
+            bitmap = fit(bitmap);
+            write(bitmap, thumbnailPath);
+        } finally {
+            bitmap.recycle();
+        }
+        removeSuperseded(thumbnailPath);
+        if (MindRefLog.isLoggable(Log.VERBOSE)) {
+            MindRefLog.v(TAG, "generate - {} -> {}", image.displayName, thumbnailPath.getFileName());
+        }
+        return true;
+    }
+
+    @Nullable
+    private Bitmap loadProviderThumbnail(MindRefFileData image) {
+        try {
+            return DocumentsContract.getDocumentThumbnail(contentResolver, image.uri, new Point(targetSize, targetSize), null);
+        } catch (Exception e) {
+            // Providers without thumbnails throw rather than return null
+            if (MindRefLog.isLoggable(Log.VERBOSE)) {
+                MindRefLog.v(TAG, "loadProviderThumbnail - None for {}: {}", image.displayName, e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    @Nullable
+    private Bitmap decodeSampled(MindRefContentStore.ContentSource source) throws IOException {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream inputStream = source.open()) {
+            if (inputStream == null) {
+                return null;
+            }
+            BitmapFactory.decodeStream(inputStream, null, bounds);
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize(bounds.outWidth, bounds.outHeight, targetSize);
+        try (InputStream inputStream = source.open()) {
+            return inputStream == null ? null : BitmapFactory.decodeStream(inputStream, null, options);
+        }
+    }
+
+    /**
+     * Scale down so the smaller side is targetSize, providers may return more than asked for
+     */
+    private Bitmap fit(Bitmap bitmap) {
+        int smaller = Math.min(bitmap.getWidth(), bitmap.getHeight());
+        if (smaller <= targetSize) {
+            return bitmap;
+        }
+        int width = Math.max(1, (int) ((long) bitmap.getWidth() * targetSize / smaller));
+        int height = Math.max(1, (int) ((long) bitmap.getHeight() * targetSize / smaller));
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * Write through a temporary file, so a thumbnail is never read half written
+     */
+    private static void write(Bitmap bitmap, Path thumbnailPath) throws IOException {
+        MindRefFileUtils.ensureDirectoryExists(thumbnailPath.getParent().toFile());
+        Path partialPath = thumbnailPath.resolveSibling(thumbnailPath.getFileName() + "-" + UUID.randomUUID() + MindRefRunner.PARTIAL_SUFFIX);
+        try {
+            try (OutputStream outputStream = Files.newOutputStream(partialPath)) {
+                // Kept lossless where the image has transparency
+                Bitmap.CompressFormat format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+                if (!bitmap.compress(format, JPEG_QUALITY, outputStream)) {
+                    throw new IOException("Cannot encode " + thumbnailPath);
+                }
+            }
+            Files.move(partialPath, thumbnailPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partialPath);
+        }
+    }
+
+    /**
+     * Remove thumbnails of earlier versions of the same document
+     */
+    private static void removeSuperseded(Path thumbnailPath) throws IOException {
+        String name = thumbnailPath.getFileName().toString();
+        String documentPrefix = name.substring(0, name.lastIndexOf('-') + 1);
+        try (DirectoryStream<Path> versions = Files.newDirectoryStream(thumbnailPath.getParent(), documentPrefix + "*")) {
+            for (Path version : versions) {
+                String versionName = version.getFileName().toString();
+                if (!versionName.equals(name) && !versionName.endsWith(MindRefRunner.PARTIAL_SUFFIX)) {
+                    Files.deleteIfExists(version);
+                }
+            }
+        }
+    }
+
+    /**
+     * Largest power of two sampling keeping the smaller side at least targetSize, as BitmapFactory
+     * decodes fastest at powers of two
+     */
+    static int sampleSize(int width, int height, int targetSize) {
+        int smaller = Math.min(width, height);
+        int sampleSize = 1;
+        while (smaller / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Document ids may contain path separators, so they are hashed into the name
+     */
+    static String thumbnailName(MindRefFileData image) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            String documentHash = MindRefContentStore.toHex(digest.digest(image.documentId.getBytes(StandardCharsets.UTF_8)));
+            return documentHash + "-" + image.lastModified;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    static Path thumbnailPath(Path thumbnailsDir, MindRefFileData image) throws IOException {
+        return thumbnailsDir.resolve(thumbnailName(image));
+    }
+
+    private static Path thumbnailsDir(Path root) {
+        return root.resolve(MindRefRunner.METADATA_DIR_NAME).resolve(THUMBNAILS_DIR_NAME);
+    }
+
+    private static Path indexPath(Path root) {
+        return root.resolve(MindRefRunner.METADATA_DIR_NAME).resolve(INDEX_FILE_NAME);
+    }
+}
@@ -7,6 +7,7 @@ import android.provider.DocumentsContract;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
@@ -16,26 +17,74 @@ import com.google.common.util.concurrent.MoreExecutors;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
 /**
+ * Close the instance when it is no longer needed, such as when its activity is destroyed,
+ * to cancel its work and release its threads.
+ *
  * @noinspection unused
  */
-public class MindRefUtils {
+public class MindRefUtils implements AutoCloseable {
     private static final String TAG = "mindrefutils";
+    /**
+     * Passed to {@link #setLogLevel} to disable logging
+     */
+    public static final int LOG_LEVEL_NONE = MindRefLog.NONE;
     private final ListeningExecutorService service;
-    private static final int NUMBER_OF_CORES = Runtime.getRuntime().availableProcessors();
+    private static final int NUMBER_OF_CORES = MindRefExecutors.NUMBER_OF_CORES;
+    // Null when using the shared pools, which outlive this instance
+    @Nullable
+    private final ExecutorService ownedWorkers;
+    @Nullable
+    private final ExecutorService ownedProviderCalls;
+    private final Set<Future<?>> inFlight = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+    private static final int DEFAULT_MIN_PROVIDER_CALLS = 1;
+    private static final int DEFAULT_MAX_PROVIDER_CALLS = NUMBER_OF_CORES * 4;
+    private final MindRefConcurrencyController providerController;
+    private volatile int mirrorMaxAttempts = MindRefMirrorSession.DEFAULT_MAX_ATTEMPTS;
+    private volatile long mirrorInitialBackoffMs = MindRefMirrorSession.DEFAULT_INITIAL_BACKOFF_MS;
+    private volatile MindRefMirrorFilter mirrorFilter;
     private final Context mContext;
     private final Uri externalStorageUri;
     private final Path appStoragePath;
 
     public final String externalStorageRoot;
     public final String appStorageRoot;
-    private MindRefUtilsCallback mindRefUtilsCallback;
-    public boolean haveMindRefUtilsCallback = false;
+    private volatile MindRefUtilsCallback mindRefUtilsCallback;
+    private volatile Executor callbackExecutor;
+    /**
+     * @deprecated Only reports whether a callback was set, completion is delivered to the callback itself
+     */
+    @Deprecated
+    public volatile boolean haveMindRefUtilsCallback = false;
+    private final List<MindRefMirrorListener> mirrorListeners = new CopyOnWriteArrayList<>();
+    private volatile MindRefSearchIndex searchIndex;
+    private volatile MindRefCatalog catalog;
+    private volatile MindRefContentStore contentStore;
+    private volatile MindRefSnapshots snapshots;
+    private volatile MindRefMappedFiles mappedFiles;
+    private volatile MindRefThumbnails thumbnails;
 
     /**
      * Constructor for MindRefUtils
@@ -44,11 +93,42 @@ public class MindRefUtils {
      * @param appStorageRoot      - String representing the Filepath to a folder that will mirror externalStorageRoot
      */
     public MindRefUtils(String externalStorageRoot, String appStorageRoot, Context context) {
+        this(externalStorageRoot, appStorageRoot, context, false);
+    }
+
+    /**
+     * Constructor for MindRefUtils
+     *
+     * @param externalStorageRoot - String representing the URI returned from user selecting document storage
+     * @param appStorageRoot      - String representing the Filepath to a folder that will mirror externalStorageRoot
+     * @param useSharedExecutor   - true to run on thread pools shared by every instance in the process,
+     *                            bounding the threads used when instances are recreated, false for pools of its own
+     */
+    public MindRefUtils(String externalStorageRoot, String appStorageRoot, Context context, boolean useSharedExecutor) {
+        this(externalStorageRoot, appStorageRoot, context,
+                useSharedExecutor ? MindRefExecutors.sharedWorkers() : MindRefExecutors.newWorkerPool("mindref-io", NUMBER_OF_CORES),
+                useSharedExecutor ? MindRefExecutors.sharedProviderCalls() : MindRefExecutors.newProviderPool("mindref-provider"),
+                !useSharedExecutor);
+    }
+
+    /**
+     * @param workers       - Runs copy operations and listings
+     * @param providerCalls - Runs the provider calls of a mirror, bounded by the provider controller
+     * @param ownsPools     - true if both pools belong to this instance, and are shut down on close
+     */
+    MindRefUtils(String externalStorageRoot, String appStorageRoot, Context context,
+                 ExecutorService workers, Executor providerCalls, boolean ownsPools) {
         Uri externalStorageRootUri = Uri.parse(externalStorageRoot);
         this.mContext = context;
         this.externalStorageUri = MindRefFileUtils.contentToDocumentUri(externalStorageRootUri, this.mContext);
         this.appStoragePath = FileSystems.getDefault().getPath(appStorageRoot);
-        this.service = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(NUMBER_OF_CORES));
+        this.ownedWorkers = ownsPools ? workers : null;
+        this.ownedProviderCalls = ownsPools ? (ExecutorService) providerCalls : null;
+        this.service = MoreExecutors.listeningDecorator(workers);
+        this.callbackExecutor = this.service;
+        // Threads are bounded by the controller's limit, not by the pool
+        this.providerController = new MindRefConcurrencyController(providerCalls,
+                DEFAULT_MIN_PROVIDER_CALLS, DEFAULT_MAX_PROVIDER_CALLS, NUMBER_OF_CORES);
         this.externalStorageRoot = externalStorageRoot;
         this.appStorageRoot = appStorageRoot;
     }
@@ -64,15 +144,301 @@ public class MindRefUtils {
     }
 
     public void setMindRefCallback(MindRefUtilsCallback callback) {
-        Log.d(TAG, "setMindRefCallback - Callback set");
+        setMindRefCallback(callback, this.service);
+    }
+
+    /**
+     * Set the callback along with the executor it is invoked on.
+     * Delivering on an executor of the caller's choosing keeps a slow callback from holding a worker thread.
+     *
+     * @param callback         - Callback notified when copy operations finish
+     * @param callbackExecutor - Executor the callback is invoked on
+     */
+    public void setMindRefCallback(MindRefUtilsCallback callback, Executor callbackExecutor) {
+        MindRefLog.d(TAG, "setMindRefCallback - Callback set");
         if (callback == null) {
-            Log.w(TAG, "setMindRefCallback - Callback is null, ignoring");
+            MindRefLog.w(TAG, "setMindRefCallback - Callback is null, ignoring");
             return;
         }
+        this.callbackExecutor = callbackExecutor;
         this.mindRefUtilsCallback = callback;
         this.haveMindRefUtilsCallback = true;
     }
 
+    /**
+     * Set how much the library logs, process wide. Messages below the level are never formatted.
+     * Defaults to {@link android.util.Log#DEBUG}, which keeps the output of releases that logged unconditionally.
+     * Raise it to Log.INFO for quieter logs.
+     *
+     * @param priority - Lowest {@link android.util.Log} priority logged, such as Log.DEBUG, or
+     *                 {@link #LOG_LEVEL_NONE} to disable logging
+     */
+    public static void setLogLevel(int priority) {
+        MindRefLog.setLevel(priority);
+    }
+
+    public static int getLogLevel() {
+        return MindRefLog.getLevel();
+    }
+
+    /**
+     * Bound the number of concurrent provider calls made by copy operations.
+     * Within these bounds the number adapts to the provider's latency and error rate.
+     *
+     * @param minCalls - Lowest number of concurrent provider calls, at least 1
+     * @param maxCalls - Highest number of concurrent provider calls
+     */
+    public void setProviderConcurrency(int minCalls, int maxCalls) {
+        MindRefLog.d(TAG, "setProviderConcurrency - min {}, max {}", minCalls, maxCalls);
+        this.providerController.setLimits(minCalls, maxCalls);
+    }
+
+    /**
+     * Configure how {@link #copyToAppStorage} retries files and directories the provider fails on.
+     * Errors of local storage are not retried. Items still failing after the last attempt are reported
+     * in {@link MindRefStats#failures} and visited again by the next copy.
+     *
+     * @param maxAttempts      - Attempts per item, at least 1
+     * @param initialBackoffMs - Wait before the first retry, doubled for each further retry
+     */
+    public void setMirrorRetry(int maxAttempts, long initialBackoffMs) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        this.mirrorMaxAttempts = maxAttempts;
+        this.mirrorInitialBackoffMs = initialBackoffMs;
+    }
+
+    /**
+     * Limit what {@link #copyToAppStorage} mirrors. Entries the filter excludes are not copied,
+     * and local copies of them are not removed as stale.
+     *
+     * @param filter - Filter to apply, configured before it is set. Null mirrors everything
+     */
+    public void setMirrorFilter(@Nullable MindRefMirrorFilter filter) {
+        MindRefLog.d(TAG, "setMirrorFilter - {}", filter == null ? "Cleared" : "Set");
+        this.mirrorFilter = filter;
+    }
+
+    /**
+     * Opt in to maintaining a full-text index of App Storage.
+     * The index is updated by each {@link #copyToAppStorage} with only the files it changed,
+     * and is persisted under App Storage between sessions.
+     *
+     * @throws IOException Thrown when an existing index cannot be opened
+     */
+    public synchronized void enableSearchIndex() throws IOException {
+        if (this.searchIndex != null) {
+            return;
+        }
+        MindRefLog.d(TAG, "enableSearchIndex - Opening index under {}", this.appStorageRoot);
+        this.searchIndex = new MindRefSearchIndex(this.appStoragePath);
+        this.mirrorListeners.add(this.searchIndex);
+    }
+
+    /**
+     * Search App Storage using the index enabled with {@link #enableSearchIndex}.
+     * Clauses are separated by whitespace and must all match. A clause ending in * matches as a prefix,
+     * a clause in double quotes matches as a phrase.
+     *
+     * @param query - Query string
+     * @return Absolute paths of matching files, empty when the index is not enabled
+     */
+    public String[] search(String query) {
+        MindRefSearchIndex index = this.searchIndex;
+        if (index == null) {
+            MindRefLog.w(TAG, "search - Search index not enabled");
+            return new String[0];
+        }
+        List<String> matches = index.search(query);
+        String[] paths = new String[matches.size()];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = this.appStoragePath.resolve(matches.get(i)).toString();
+        }
+        return paths;
+    }
+
+    /**
+     * Opt in to maintaining a catalog of the notes in App Storage.
+     * The catalog is updated by each {@link #copyToAppStorage} and persisted under App Storage,
+     * so it can be read at startup with {@link #readCatalog} instead of walking the notes.
+     */
+    public synchronized void enableCatalog() {
+        if (this.catalog != null) {
+            return;
+        }
+        MindRefLog.d(TAG, "enableCatalog - Opening catalog under {}", this.appStorageRoot);
+        this.catalog = new MindRefCatalog(this.appStoragePath);
+        this.mirrorListeners.add(this.catalog);
+    }
+
+    /**
+     * Opt in to storing identical files once. Files with the same size and checksum, such as an image
+     * copied into several categories, are kept once under App Storage and hard linked (or copied, where
+     * links are unsupported) into each mirrored path. Notes are never deduplicated, as they are edited in place.
+     *
+     * @throws IOException Thrown when the store cannot be opened
+     */
+    public synchronized void enableDeduplication() throws IOException {
+        if (this.contentStore != null) {
+            return;
+        }
+        MindRefLog.d(TAG, "enableDeduplication - Opening content store under {}", this.appStorageRoot);
+        this.contentStore = new MindRefContentStore(this.appStoragePath);
+        this.mirrorListeners.add(this.contentStore);
+    }
+
+    /**
+     * Opt in to staged mirroring. Each {@link #copyToAppStorage} writes into a staging tree and publishes
+     * it atomically once complete, so App Storage can be read at any time without seeing a half finished
+     * mirror. The App Storage root becomes a link to the current snapshot on the first publish.
+     * <p>
+     * Paths resolved through appStorageRoot always reach a complete snapshot. Readers walking many files
+     * should resolve {@link #getSnapshotRoot} once, which stays intact until the mirror after next.
+     * <p>
+     * Snapshots share unchanged files by hard link, so a file edited in place would change in every
+     * snapshot. Once enabled, write a file by moving a new one over it, never by modifying it in place.
+     */
+    public synchronized void enableStagedSync() {
+        if (this.snapshots != null) {
+            return;
+        }
+        MindRefLog.d(TAG, "enableStagedSync - Staging mirrors of {}", this.appStorageRoot);
+        this.snapshots = new MindRefSnapshots(this.appStoragePath);
+    }
+
+    /**
+     * @return Directory of the App Storage snapshot currently published. Without staged mirroring,
+     * the App Storage root itself
+     * @throws IOException Thrown when App Storage does not exist yet
+     */
+    public String getSnapshotRoot() throws IOException {
+        MindRefSnapshots current = this.snapshots;
+        return (current == null ? this.appStoragePath : current.current()).toString();
+    }
+
+    /**
+     * Opt in to caching the mappings made by {@link #readMapped}, with the default limits
+     */
+    public void enableMappedReadCache() {
+        enableMappedReadCache(MindRefMappedFiles.DEFAULT_MAX_ENTRIES, MindRefMappedFiles.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Opt in to caching the mappings made by {@link #readMapped}. Mappings of files a later
+     * {@link #copyToAppStorage} replaces or removes are dropped.
+     *
+     * @param maxEntries - Mappings kept at most
+     * @param maxBytes   - Total size of the mappings kept at most
+     */
+    public synchronized void enableMappedReadCache(int maxEntries, long maxBytes) {
+        if (this.mappedFiles != null) {
+            this.mirrorListeners.remove(this.mappedFiles);
+        }
+        MindRefLog.d(TAG, "enableMappedReadCache - {} entries, {} bytes", maxEntries, maxBytes);
+        this.mappedFiles = new MindRefMappedFiles(this.appStoragePath, maxEntries, maxBytes);
+        this.mirrorListeners.add(this.mappedFiles);
+    }
+
+    /**
+     * Memory map a mirrored file, for handing its content to native code without a copy on the heap.
+     * Without {@link #enableMappedReadCache}, every call maps the file again.
+     *
+     * @param path - Path relative to appStorageRoot, or absolute
+     * @return Read-only direct buffer over the whole file
+     * @throws IOException Thrown when the file cannot be read, or is too large to map
+     */
+    public ByteBuffer readMapped(String path) throws IOException {
+        MindRefMappedFiles cache = this.mappedFiles;
+        if (cache == null) {
+            // Caches nothing
+            cache = new MindRefMappedFiles(this.appStoragePath, 0, 0);
+        }
+        return cache.map(path);
+    }
+
+    /**
+     * Opt in to thumbnails of images, see {@link #enableThumbnails(int)}, with the default size
+     */
+    public void enableThumbnails() {
+        enableThumbnails(MindRefThumbnails.DEFAULT_TARGET_SIZE);
+    }
+
+    /**
+     * Opt in to thumbnails of images, for showing them as tiles without decoding them at full size.
+     * Images are thumbnailed in the background once each {@link #copyToAppStorage} that mirrors them has
+     * completed, and only again once they change. An image that fails to thumbnail does not fail the mirror.
+     *
+     * @param targetSize - Size in pixels of the smaller side of a thumbnail
+     */
+    public synchronized void enableThumbnails(int targetSize) {
+        if (this.thumbnails != null) {
+            this.mirrorListeners.remove(this.thumbnails);
+        }
+        if (MindRefLog.isLoggable(Log.DEBUG)) {
+            MindRefLog.d(TAG, "enableThumbnails - {}px under {}", targetSize, this.appStorageRoot);
+        }
+        this.thumbnails = new MindRefThumbnails(this.appStoragePath, targetSize, this.mContext.getContentResolver());
+        this.mirrorListeners.add(this.thumbnails);
+    }
+
+    /**
+     * Thumbnail of an image, generated if not cached. Slow when generated, call off the main thread.
+     *
+     * @param image - Image in External Storage
+     * @return Absolute path of the thumbnail, null if the image cannot be decoded or thumbnails are not enabled
+     * @throws IOException Thrown when the thumbnail cannot be written
+     */
+    @Nullable
+    public String getThumbnail(MindRefFileData image) throws IOException {
+        MindRefThumbnails current = this.thumbnails;
+        if (current == null) {
+            MindRefLog.w(TAG, "getThumbnail - Thumbnails not enabled");
+            return null;
+        }
+        Path thumbnailPath = current.get(image);
+        return thumbnailPath == null ? null : thumbnailPath.toString();
+    }
+
+    /**
+     * Thumbnail of a category's image, the first image found by {@link MindRefFileData#getFirstChildImageFromUri}
+     *
+     * @param categoryUri - String representing the URI of the category directory
+     * @return Future completing with the absolute path of the thumbnail, or null when the category has no image
+     */
+    public ListenableFuture<String> getCategoryThumbnailAsync(String categoryUri) {
+        ContentResolver contentResolver = this.mContext.getContentResolver();
+        return submit(() -> {
+            MindRefFileData image = MindRefFileData.getFirstChildImageFromUri(Uri.parse(categoryUri), contentResolver);
+            return image == null ? null : getThumbnail(image);
+        });
+    }
+
+    /**
+     * Notes in App Storage, as of the last {@link #copyToAppStorage}
+     *
+     * @return Catalog entries sorted by path
+     * @throws IOException Thrown when the catalog file cannot be read
+     */
+    public MindRefCatalog.Entry[] getCatalog() throws IOException {
+        MindRefCatalog current = this.catalog;
+        if (current != null) {
+            return current.getEntries().toArray(new MindRefCatalog.Entry[0]);
+        }
+        return readCatalog(this.appStorageRoot);
+    }
+
+    /**
+     * Read the catalog written by a previous {@link #copyToAppStorage}, without constructing MindRefUtils
+     *
+     * @param appStorageRoot - String representing the Filepath of the mirrored folder
+     * @return Catalog entries sorted by path, empty if no catalog has been written
+     * @throws IOException Thrown when the catalog file cannot be read
+     */
+    public static MindRefCatalog.Entry[] readCatalog(String appStorageRoot) throws IOException {
+        return MindRefCatalog.read(MindRefFileUtils.stringToPath(appStorageRoot)).toArray(new MindRefCatalog.Entry[0]);
+    }
+
     /**
      * Mirror External Storage to private App storage to allow working with files natively.
      * Newer Files in External Storage - Overwrite Older Files in App Storage
@@ -81,54 +447,100 @@ public class MindRefUtils {
      * This is a slow operation
      *
      * @param key - Arbitrary int, will be passed to callback
-     * @throws IOException Thrown when the target path is invalid (not a directory)
+     * @throws IOException Not thrown, failures reach the callback. Kept for source compatibility
      */
     public void copyToAppStorage(int key) throws IOException {
-        Log.d(TAG, "copyToAppStorage - Start - Operation Key: " + key);
+        notifyCallback("copyToAppStorage", key, copyToAppStorageAsync(key));
+    }
+
+    /**
+     * Mirror External Storage to private App storage, see {@link #copyToAppStorage}.
+     * Files and directories still failing after retries are reported in {@link MindRefStats#failures}
+     * rather than failing the mirror. Progress is checkpointed, so an interrupted mirror resumes.
+     * With {@link #enableStagedSync} the result is published only once the mirror has finished, and
+     * overlapping calls mirror one after another.
+     *
+     * @param key - Arbitrary int, carried in the result
+     * @return Future completing with the stats of the mirror, or failing with its exception
+     */
+    public ListenableFuture<MindRefStats> copyToAppStorageAsync(int key) {
+        MindRefLog.d(TAG, "copyToAppStorage - Start - Operation Key: {}", key);
         ContentResolver contentResolver = this.mContext.getContentResolver();
         File targetFile = this.appStoragePath.toFile();
-        Log.d(TAG, "copyToAppStorage - Target File: " + targetFile.getAbsolutePath());
-
-        // Creating the app storage directory if it doesn't exist
-        Log.d(TAG, "copyToAppStorage - ensureDirectoryExists: " + targetFile.getAbsolutePath());
-        MindRefFileUtils.ensureDirectoryExists(targetFile);
+        if (MindRefLog.isLoggable(Log.DEBUG)) {
+            MindRefLog.d(TAG, "copyToAppStorage - Target File: {}", targetFile.getAbsolutePath());
+        }
 
-        // Schedule a task
-        ListenableFuture<Boolean> task = service.submit(
+        MindRefThumbnails thumbnails = this.thumbnails;
+        ListenableFuture<MindRefStats> task = submit(
                 () -> {
-                    MindRefRunner.mirrorDirectory(this.externalStorageUri, targetFile, contentResolver);
-                    return true;
+                    MindRefSnapshots staged = this.snapshots;
+                    if (staged == null) {
+                        return mirrorToAppStorage(key, contentResolver, targetFile, null);
+                    }
+                    // Staged runs share one staging tree, an overlapping run waits for the previous one to publish
+                    synchronized (staged) {
+                        return mirrorToAppStorage(key, contentResolver, targetFile, staged);
+                    }
                 }
         );
-        // Callbacks
-        Futures.addCallback(
-                task,
-                new FutureCallback<Boolean>() {
-                    public void onSuccess(Boolean flag) {
-                        Log.d(TAG, "copyToAppStorage - Finish");
-                        if (haveMindRefUtilsCallback) {
-                            Log.d(TAG, "copyToAppStorage - Callback onComplete");
-                            mindRefUtilsCallback.onComplete(key);
-                        } else {
-                            Log.i(TAG, "copyToAppStorage - No Callback Registered - Cannot notify completion");
-                        }
-                    }
-
-                    public void onFailure(@NonNull Throwable t) {
-                        Log.e(TAG, "copyToAppStorage - Failure: ", t);
-
-
-                        if (haveMindRefUtilsCallback) {
-                            Log.d(TAG, "copyToAppStorage - Callback onFailure");
-                            mindRefUtilsCallback.onFailure(key);
-                        } else {
-                            Log.i(TAG, "copyToAppStorage - No Callback Registered - Cannot notify failure");
-                        }
+        if (thumbnails != null) {
+            // Decoding waits for the mirror to complete rather than delaying it
+            Futures.addCallback(task, new FutureCallback<MindRefStats>() {
+                @Override
+                public void onSuccess(MindRefStats result) {
+                    submit(() -> {
+                        thumbnails.generatePending();
+                        return null;
+                    });
+                }
 
-                    }
+                @Override
+                public void onFailure(@NonNull Throwable t) {
+                    // Images of an unpublished mirror are not in App Storage, they are thumbnailed on request
                 }
-                , service);
+            }, MoreExecutors.directExecutor());
+        }
+        return task;
+    }
+
+    /**
+     * @param staged - Snapshots to stage into and publish, null to mirror into App Storage directly.
+     *               The caller holds its lock.
+     */
+    private MindRefStats mirrorToAppStorage(int key, ContentResolver contentResolver, File targetFile,
+                                            @Nullable MindRefSnapshots staged) throws IOException {
+        File mirrorRoot;
+        if (staged == null) {
+            // Creating the app storage directory if it doesn't exist
+            MindRefFileUtils.ensureDirectoryExists(targetFile);
+            mirrorRoot = targetFile;
+        } else {
+            mirrorRoot = staged.prepareStaging().toFile();
+            MindRefLog.d(TAG, "copyToAppStorage - Staging into {}", mirrorRoot);
+        }
 
+        MindRefStats.Collector stats = new MindRefStats.Collector(key);
+        List<MindRefMirrorListener> listeners = new ArrayList<>(this.mirrorListeners);
+        listeners.add(stats);
+        MindRefMirrorSession session = new MindRefMirrorSession(mirrorRoot)
+                .setListener(MindRefMirrorListener.of(listeners))
+                .setController(this.providerController)
+                .setRetry(this.mirrorMaxAttempts, this.mirrorInitialBackoffMs)
+                .setFilter(this.mirrorFilter)
+                .setContentStore(this.contentStore)
+                .setCheckpoint(new MindRefMirrorCheckpoint(mirrorRoot.toPath(), this.externalStorageUri.toString()));
+
+        MindRefRunner.mirrorDirectory(this.externalStorageUri, mirrorRoot, contentResolver, session);
+        session.finish();
+        if (staged != null) {
+            // Items that failed keep their previous content, the rest of the tree is still newer.
+            // finish() dropped the checkpoint, so the next run visits everything again
+            staged.publish();
+        }
+        MindRefStats result = stats.build(session.getFailures());
+        MindRefLog.d(TAG, "copyToAppStorage - Finish {}", result);
+        return result;
     }
 
     /**
@@ -139,56 +551,200 @@ public class MindRefUtils {
      * @param directory  - Directory to which it belongs
      * @param name       - Name of the file, without suffix
      * @param mimeType   - MimeType of sourcefile
-     * @throws IOException - Thrown when the directory cannot be created
+     * @throws IOException - Not thrown, failures reach the callback. Kept for source compatibility
      */
 
     public void copyToExternalStorage(int key, String sourcePath, String directory, String name, String mimeType) throws IOException {
-        Log.d(TAG, "copyToExternalStorage - Start " + sourcePath + ", " + directory + ", " + name + ", " + mimeType);
-        ContentResolver contentResolver = mContext.getContentResolver();
-
-
-        // Find matching directory or create it if it doesn't exist
-        MindRefFileData directoryData = MindRefFileData.getChildDirectoryFromUri(this.externalStorageUri, directory, contentResolver);
-        if (directoryData == null) {
-            // Create the directory if it doesn't exist
-            Log.d(TAG, "Directory does not exist, creating: " + directory);
-            directoryData = createDirectory(directory, contentResolver);
-        }
+        notifyCallback("copyToExternalStorage", key, copyToExternalStorageAsync(key, sourcePath, directory, name, mimeType));
+    }
 
-        // Use final variable for lambda
-        final MindRefFileData directoryChild = directoryData;
+    /**
+     * Persist a file from App Storage to External Storage, see {@link #copyToExternalStorage}
+     *
+     * @param key        - Arbitrary int, carried in the result
+     * @param sourcePath - Location of the app file
+     * @param directory  - Directory to which it belongs
+     * @param name       - Name of the file, without suffix
+     * @param mimeType   - MimeType of sourcefile
+     * @return Future completing with the stats of the write, or failing with its exception
+     */
+    public ListenableFuture<MindRefStats> copyToExternalStorageAsync(int key, String sourcePath, String directory, String name, String mimeType) {
+        MindRefLog.d(TAG, "copyToExternalStorage - Start {}, {}, {}, {}", sourcePath, directory, name, mimeType);
+        ContentResolver contentResolver = mContext.getContentResolver();
 
-        ListenableFuture<Boolean> task = service.submit(
+        return submit(
                 () -> {
-                    MindRefRunner.writeFileToExternal(MindRefFileUtils.stringToPath(sourcePath), name, mimeType, directoryChild, contentResolver);
-                    return true;
+                    long startTime = System.currentTimeMillis();
+                    Path source = MindRefFileUtils.stringToPath(sourcePath);
+                    this.providerController.call(() -> {
+                        // Find matching directory or create it if it doesn't exist
+                        MindRefFileData directoryData = MindRefFileData.getChildDirectoryFromUri(this.externalStorageUri, directory, contentResolver);
+                        if (directoryData == null) {
+                            // Create the directory if it doesn't exist
+                            MindRefLog.d(TAG, "Directory does not exist, creating: {}", directory);
+                            directoryData = createDirectory(directory, contentResolver);
+                        }
+                        MindRefRunner.writeFileToExternal(source, name, mimeType, directoryData, contentResolver);
+                        return true;
+                    });
+                    MindRefStats result = new MindRefStats(key, 1, 1, 0, Files.size(source),
+                            System.currentTimeMillis() - startTime);
+                    MindRefLog.d(TAG, "copyToExternalStorage - Finish {}", result);
+                    return result;
                 }
         );
+    }
 
+    /**
+     * Adapt a future to the registered MindRefUtilsCallback
+     *
+     * @param operation - Name of the operation, for logging
+     * @param key       - Key passed to the callback
+     * @param task      - Operation to observe
+     */
+    void notifyCallback(String operation, int key, ListenableFuture<MindRefStats> task) {
         Futures.addCallback(
                 task,
-                new FutureCallback<Boolean>() {
+                new FutureCallback<MindRefStats>() {
                     @Override
-                    public void onSuccess(Boolean result) {
-                        Log.v(TAG, "copyToExternalStorage - Finish");
-                        if (haveMindRefUtilsCallback) {
-                            mindRefUtilsCallback.onComplete(key);
+                    public void onSuccess(MindRefStats result) {
+                        if (!result.failures.isEmpty()) {
+                            // The int key can't carry a partial result, report it as a failure
+                            onFailure(new IOException(result.failures.size() + " items failed, first: "
+                                    + result.failures.get(0).path, result.failures.get(0).cause));
+                            return;
+                        }
+                        MindRefUtilsCallback callback = mindRefUtilsCallback;
+                        if (callback != null) {
+                            MindRefLog.d(TAG, "{} - Callback onComplete", operation);
+                            callback.onComplete(key);
                         } else {
-                            Log.i(TAG, "copyToExternalStorage - No Callback Registered");
+                            MindRefLog.i(TAG, "{} - No Callback Registered - Cannot notify completion", operation);
                         }
                     }
 
                     @Override
                     public void onFailure(@NonNull Throwable t) {
-                        Log.e(TAG, t.toString());
-                        if (haveMindRefUtilsCallback) {
-                            mindRefUtilsCallback.onFailure(key);
+                        MindRefLog.e(TAG, "{} - Failure: ", operation, t);
+                        MindRefUtilsCallback callback = mindRefUtilsCallback;
+                        if (callback != null) {
+                            MindRefLog.d(TAG, "{} - Callback onFailure", operation);
+                            callback.onFailure(key);
+                        } else {
+                            MindRefLog.i(TAG, "{} - No Callback Registered - Cannot notify failure", operation);
                         }
                     }
                 },
-                service
+                callbackExecutor
         );
+    }
+
+    /**
+     * List the children of External Storage incrementally.
+     * The provider is queried on the worker pool, pages are delivered on callbackExecutor, in order
+     * only if it runs one task at a time.
+     *
+     * @param pageSize         - Maximum number of children per page
+     * @param callbackExecutor - Executor the callback is invoked on
+     * @param callback         - Receives pages, then completion or failure
+     * @return MindRefListing, can be used to cancel
+     */
+    public MindRefListing listChildren(int pageSize, Executor callbackExecutor, MindRefListing.Callback callback) {
+        return listChildren(this.externalStorageUri, pageSize, callbackExecutor, callback);
+    }
+
+    /**
+     * List the children of a directory within External Storage incrementally.
+     * The provider is queried on the worker pool, pages are delivered on callbackExecutor, in order
+     * only if it runs one task at a time.
+     *
+     * @param parentUri        - Document Uri of the directory to list
+     * @param pageSize         - Maximum number of children per page
+     * @param callbackExecutor - Executor the callback is invoked on
+     * @param callback         - Receives pages, then completion or failure
+     * @return MindRefListing, can be used to cancel
+     */
+    public MindRefListing listChildren(Uri parentUri, int pageSize, Executor callbackExecutor, MindRefListing.Callback callback) {
+        MindRefLog.d(TAG, "listChildren - Start {}, pageSize {}", parentUri, pageSize);
+        ContentResolver contentResolver = this.mContext.getContentResolver();
+        MindRefListing listing = new MindRefListing(parentUri, contentResolver, pageSize, callbackExecutor, callback);
+        ListenableFuture<Object> task = submit(Executors.callable(listing));
+        // Cancelling the task, as close does, also cancels the provider query
+        task.addListener(() -> {
+            if (task.isCancelled()) {
+                listing.cancel();
+            }
+        }, MoreExecutors.directExecutor());
+        return listing;
+    }
+
+    /**
+     * Stop accepting work and wait for work in flight to finish. Follow with {@link #close}.
+     *
+     * @param timeout - Longest time to wait
+     * @param unit    - Unit of timeout
+     * @return true if all work finished, false if the timeout elapsed first
+     * @throws InterruptedException - Thrown when interrupted while waiting
+     */
+    public boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+        this.closed = true;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Future<?> task : new ArrayList<>(this.inFlight)) {
+            try {
+                task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                MindRefLog.w(TAG, "drain - Timed out with {} tasks in flight", this.inFlight.size());
+                return false;
+            } catch (ExecutionException | CancellationException e) {
+                // Finished, its outcome was reported to whoever submitted it
+            }
+        }
+        return true;
+    }
 
+    /**
+     * Stop accepting work, cancel work in flight and release this instance's threads.
+     * A cancelled mirror resumes from its checkpoint the next time it runs. Safe to call more than once.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        int cancelled = 0;
+        for (Future<?> task : this.inFlight) {
+            if (task.cancel(true)) {
+                cancelled++;
+            }
+        }
+        MindRefLog.d(TAG, "close - Cancelled {} tasks", cancelled);
+        if (this.ownedWorkers != null) {
+            // Not shutdownNow, callbacks for the cancelled tasks are still queued
+            this.ownedWorkers.shutdown();
+        }
+        if (this.ownedProviderCalls != null) {
+            this.ownedProviderCalls.shutdownNow();
+        }
+    }
+
+    /**
+     * Run a task on the worker pool, tracked so {@link #close} can cancel it
+     */
+    private <T> ListenableFuture<T> submit(Callable<T> task) {
+        if (this.closed) {
+            return Futures.immediateFailedFuture(new IllegalStateException("MindRefUtils is closed"));
+        }
+        ListenableFuture<T> future;
+        try {
+            future = this.service.submit(task);
+        } catch (RejectedExecutionException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        this.inFlight.add(future);
+        future.addListener(() -> this.inFlight.remove(future), MoreExecutors.directExecutor());
+        if (this.closed) {
+            // Closed while submitting, close may have missed it
+            future.cancel(true);
+        }
+        return future;
     }
 
     /**
@@ -200,7 +756,7 @@ public class MindRefUtils {
      * @throws IOException - Thrown when the directory cannot be created
      */
     private MindRefFileData createDirectory(String directory, ContentResolver contentResolver) throws IOException {
-        Log.d(TAG, "createDirectory - Start " + directory);
+        MindRefLog.d(TAG, "createDirectory - Start {}", directory);
         MindRefFileData sourceFolder = MindRefFileData.fromTreeUri(this.externalStorageUri);
         return sourceFolder.getOrMakeChild(contentResolver, directory, DocumentsContract.Document.MIME_TYPE_DIR);
     }
@@ -12,6 +12,9 @@ import androidx.core.view.WindowCompat;
 import androidx.core.view.WindowInsetsCompat;
 import androidx.core.view.WindowInsetsControllerCompat;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * Keeps the activity's content clear of the system bars.
  * <p>
@@ -19,11 +22,108 @@ import androidx.core.view.WindowInsetsControllerCompat;
  * navigation bar and any display cutout over the app's content. Padding the content view
  * shrinks the SDL surface to the safe area, so the UI toolkit above it needs no knowledge
  * of insets.
+ * <p>
+ * The safe area last applied is kept as an immutable snapshot, readable from any thread
+ * without a trip through the UI thread. Native layout code can poll {@link #getSafeAreaVersion}
+ * each frame and only fetch {@link #getSafeArea} when it moves.
  *
  * @noinspection unused
  */
 public class MindRefWindowInsets {
     private static final String TAG = "mindrefutils";
+    private static volatile SafeArea safeArea = SafeArea.NONE;
+    private static volatile int safeAreaVersion = 0;
+    private static final List<SafeAreaListener> safeAreaListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Insets, in pixels, the content view is padded by
+     */
+    public static final class SafeArea {
+        public static final SafeArea NONE = new SafeArea(0, 0, 0, 0);
+
+        public final int left;
+        public final int top;
+        public final int right;
+        public final int bottom;
+
+        public SafeArea(int left, int top, int right, int bottom) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        boolean matches(int left, int top, int right, int bottom) {
+            return this.left == left && this.top == top && this.right == right && this.bottom == bottom;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SafeArea)) return false;
+            SafeArea other = (SafeArea) o;
+            return matches(other.left, other.top, other.right, other.bottom);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((left * 31 + top) * 31 + right) * 31 + bottom;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + left + "," + top + "][" + right + "," + bottom + "]";
+        }
+    }
+
+    /**
+     * Notified on the UI thread when the safe area changes
+     */
+    public interface SafeAreaListener {
+        void onSafeAreaChanged(SafeArea safeArea);
+    }
+
+    /**
+     * @return Safe area last applied, {@link SafeArea#NONE} before any insets were dispatched
+     */
+    public static SafeArea getSafeArea() {
+        return safeArea;
+    }
+
+    /**
+     * @return Counter incremented each time the safe area changes, cheap to poll
+     */
+    public static int getSafeAreaVersion() {
+        return safeAreaVersion;
+    }
+
+    public static void addSafeAreaListener(SafeAreaListener listener) {
+        safeAreaListeners.add(listener);
+    }
+
+    public static void removeSafeAreaListener(SafeAreaListener listener) {
+        safeAreaListeners.remove(listener);
+    }
+
+    /**
+     * Record a newly dispatched safe area. Only called from the UI thread, so there is a single writer.
+     *
+     * @return true if it differs from the snapshot, and listeners were notified
+     */
+    static boolean updateSafeArea(int left, int top, int right, int bottom) {
+        if (safeArea.matches(left, top, right, bottom)) {
+            return false;
+        }
+        SafeArea updated = new SafeArea(left, top, right, bottom);
+        MindRefLog.d(TAG, "applyToContentView - safe area {}", updated);
+        // Snapshot before version, a reader seeing the new version sees the new snapshot
+        safeArea = updated;
+        safeAreaVersion++;
+        for (SafeAreaListener listener : safeAreaListeners) {
+            listener.onSafeAreaChanged(updated);
+        }
+        return true;
+    }
 
     /**
      * Pad the activity's content view by the current insets and fill the exposed edges.
@@ -43,7 +143,7 @@ public class MindRefWindowInsets {
         activity.runOnUiThread(() -> {
             View content = activity.findViewById(android.R.id.content);
             if (content == null) {
-                Log.e(TAG, "applyToContentView - no content view found");
+                MindRefLog.e(TAG, "applyToContentView - no content view found");
                 return;
             }
             
@@ -55,17 +155,21 @@ public class MindRefWindowInsets {
                     WindowCompat.getInsetsController(activity.getWindow(), content);
             controller.setAppearanceLightStatusBars(backgroundIsLight);
             controller.setAppearanceLightNavigationBars(backgroundIsLight);
-            Log.d(TAG, "applyToContentView - background " + Integer.toHexString(backgroundColor)
-                    + ", light bars " + backgroundIsLight);
+            if (MindRefLog.isLoggable(Log.DEBUG)) {
+                MindRefLog.d(TAG, "applyToContentView - background {}, light bars {}",
+                        Integer.toHexString(backgroundColor), backgroundIsLight);
+            }
 
             ViewCompat.setOnApplyWindowInsetsListener(content, (view, windowInsets) -> {
-                Insets safeArea = windowInsets.getInsets(
+                Insets insets = windowInsets.getInsets(
                         WindowInsetsCompat.Type.systemBars()
                                 | WindowInsetsCompat.Type.displayCutout());
-                Log.d(TAG, "applyToContentView - padding ["
-                        + safeArea.left + "," + safeArea.top + "]["
-                        + safeArea.right + "," + safeArea.bottom + "]");
-                view.setPadding(safeArea.left, safeArea.top, safeArea.right, safeArea.bottom);
+                updateSafeArea(insets.left, insets.top, insets.right, insets.bottom);
+                // Dispatches repeat during IME animations with the bars unchanged, skip the relayout
+                if (view.getPaddingLeft() != insets.left || view.getPaddingTop() != insets.top
+                        || view.getPaddingRight() != insets.right || view.getPaddingBottom() != insets.bottom) {
+                    view.setPadding(insets.left, insets.top, insets.right, insets.bottom);
+                }
                 // Passed through rather than consumed so SDL still sees IME insets.
                 return windowInsets;
             });
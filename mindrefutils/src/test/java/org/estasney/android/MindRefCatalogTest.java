@@ -0,0 +1,114 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+public class MindRefCatalogTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path writeNote(String relativePath, String text) throws IOException {
+        Path note = tempFolder.getRoot().toPath().resolve(relativePath);
+        Files.createDirectories(note.getParent());
+        Files.write(note, text.getBytes(StandardCharsets.UTF_8));
+        return note;
+    }
+
+    @Test
+    public void readTitle_prefersFirstHeading() throws IOException {
+        Path note = writeNote("a.md", "intro line\n\n## Gradle Daemon\nbody");
+
+        assertEquals("Gradle Daemon", MindRefCatalog.readTitle(note));
+    }
+
+    @Test
+    public void readTitle_fallsBackToFirstLine() throws IOException {
+        Path note = writeNote("a.md", "\n  first line  \nsecond");
+
+        assertEquals("first line", MindRefCatalog.readTitle(note));
+    }
+
+    @Test
+    public void readTitle_fallsBackToFileName() throws IOException {
+        Path note = writeNote("empty.md", "");
+
+        assertEquals("empty", MindRefCatalog.readTitle(note));
+    }
+
+    @Test
+    public void onFileMirrored_recordsCategoryAndSize() throws IOException {
+        MindRefCatalog catalog = new MindRefCatalog(tempFolder.getRoot().toPath());
+        catalog.onFileMirrored(writeNote("gradle/build.md", "# Build"), null, true);
+        catalog.onFileMirrored(writeNote("gradle/image.png", "not a note"), null, true);
+
+        List<MindRefCatalog.Entry> entries = catalog.getEntries();
+
+        assertEquals(1, entries.size());
+        assertEquals("gradle/build.md", entries.get(0).path);
+        assertEquals("gradle", entries.get(0).category);
+        assertEquals("Build", entries.get(0).title);
+        assertEquals(7, entries.get(0).size);
+    }
+
+    @Test
+    public void onPathRemoved_dropsEverythingBelowDirectory() throws IOException {
+        Path root = tempFolder.getRoot().toPath();
+        MindRefCatalog catalog = new MindRefCatalog(root);
+        catalog.onFileMirrored(writeNote("gradle/build.md", "a"), null, true);
+        catalog.onFileMirrored(writeNote("gradle-extra/other.md", "b"), null, true);
+
+        catalog.onPathRemoved(root.resolve("gradle"), true);
+
+        assertEquals(1, catalog.getEntries().size());
+        assertEquals("gradle-extra/other.md", catalog.getEntries().get(0).path);
+    }
+
+    @Test
+    public void read_returnsWhatWasSaved() throws IOException {
+        Path root = tempFolder.getRoot().toPath();
+        MindRefCatalog catalog = new MindRefCatalog(root);
+        catalog.onFileMirrored(writeNote("python/venv.md", "# Virtual Environments"), null, true);
+        catalog.onMirrorFinished();
+
+        List<MindRefCatalog.Entry> entries = MindRefCatalog.read(root);
+
+        assertEquals(1, entries.size());
+        assertEquals("Virtual Environments", entries.get(0).title);
+    }
+
+    @Test
+    public void read_returnsEmptyWhenNoCatalog() throws IOException {
+        assertTrue(MindRefCatalog.read(tempFolder.getRoot().toPath()).isEmpty());
+    }
+
+    @Test
+    public void onFileMirrored_refreshesFileWrittenAfterLastSave() throws IOException {
+        Path root = tempFolder.getRoot().toPath();
+        MindRefCatalog catalog = new MindRefCatalog(root);
+        Path note = writeNote("a.md", "# Alpha");
+        catalog.onFileMirrored(note, null, true);
+        catalog.onMirrorFinished();
+        // Written by a mirror that died before saving the catalog
+        writeNote("a.md", "# Omega, longer");
+        Files.setLastModifiedTime(note, FileTime.fromMillis(Files.getLastModifiedTime(note).toMillis() + 1000));
+
+        MindRefCatalog reopened = new MindRefCatalog(root);
+        reopened.onFileMirrored(note, null, false);
+
+        MindRefCatalog.Entry entry = reopened.getEntries().get(0);
+        assertEquals("Omega, longer", entry.title);
+        assertEquals(Files.size(note), entry.size);
+    }
+}
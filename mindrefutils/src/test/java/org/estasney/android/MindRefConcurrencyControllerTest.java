@@ -0,0 +1,110 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MindRefConcurrencyControllerTest {
+
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void call_failureHalvesLimit() {
+        MindRefConcurrencyController controller = new MindRefConcurrencyController(pool, 1, 16, 8);
+
+        assertThrows(IOException.class, () -> controller.call(() -> {
+            throw new IOException("provider unavailable");
+        }));
+
+        assertEquals(4, controller.getLimit());
+    }
+
+    @Test
+    public void call_limitNeverDropsBelowMinimum() {
+        MindRefConcurrencyController controller = new MindRefConcurrencyController(pool, 2, 16, 2);
+
+        assertThrows(IOException.class, () -> controller.call(() -> {
+            throw new IOException("provider unavailable");
+        }));
+
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    public void submit_neverExceedsLimitInFlight() throws Exception {
+        MindRefConcurrencyController controller = new MindRefConcurrencyController(pool, 1, 3, 3);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        ArrayList<ListenableFuture<Boolean>> tasks = new ArrayList<>();
+
+        for (int i = 0; i < 30; i++) {
+            tasks.add(controller.submit(() -> {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                Thread.sleep(2);
+                inFlight.decrementAndGet();
+                return true;
+            }));
+        }
+        for (ListenableFuture<Boolean> task : tasks) {
+            task.get();
+        }
+
+        assertTrue(maxInFlight.get() <= 3);
+    }
+
+    @Test
+    public void setLimits_rejectsMinimumAboveMaximum() {
+        MindRefConcurrencyController controller = new MindRefConcurrencyController(pool, 1, 4, 2);
+
+        assertThrows(IllegalArgumentException.class, () -> controller.setLimits(5, 4));
+    }
+
+    @Test
+    public void submit_largeTransferIsNotOverload() throws Exception {
+        MindRefConcurrencyController controller = new MindRefConcurrencyController(pool, 1, 16, 8);
+        for (int i = 0; i < 5; i++) {
+            controller.submit(permit -> {
+                Thread.sleep(2);
+                permit.release(1024);
+                return true;
+            }).get();
+        }
+
+        // Ten times as slow, for a thousand times the bytes
+        controller.submit(permit -> {
+            Thread.sleep(20);
+            permit.release(1024 * 1024 * 1024);
+            return true;
+        }).get();
+
+        assertTrue(controller.getLimit() >= 8);
+    }
+
+    @Test
+    public void submit_releasesSlotOfFailedTaskAsFailure() {
+        MindRefConcurrencyController controller = new MindRefConcurrencyController(pool, 1, 16, 8);
+
+        assertThrows(ExecutionException.class, () -> controller.submit(permit -> {
+            throw new IOException("provider unavailable");
+        }).get());
+
+        assertEquals(4, controller.getLimit());
+    }
+}
@@ -0,0 +1,181 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+public class MindRefContentStoreTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final byte[] IMAGE = "image bytes".getBytes(StandardCharsets.UTF_8);
+
+    private Path root() {
+        return tempFolder.getRoot().toPath();
+    }
+
+    private Path target(String relativePath) throws IOException {
+        Path target = root().resolve(relativePath);
+        Files.createDirectories(target.getParent());
+        return target;
+    }
+
+    private static MindRefFileData srcFile(String documentId) {
+        return new MindRefFileData(null, documentId, documentId, "image/png", 1000L, IMAGE.length);
+    }
+
+    private static MindRefContentStore.ContentSource bytes(byte[] content) {
+        return () -> new ByteArrayInputStream(content);
+    }
+
+    private long objectFiles() throws IOException {
+        try (Stream<Path> objects = Files.list(root().resolve(MindRefRunner.METADATA_DIR_NAME).resolve(MindRefContentStore.OBJECTS_DIR_NAME))) {
+            return objects.filter(path -> !path.getFileName().toString().startsWith("refs")).count();
+        }
+    }
+
+    @Test
+    public void handles_skipsNotes() throws IOException {
+        MindRefContentStore store = new MindRefContentStore(root());
+
+        assertTrue(store.handles(root().resolve("a/image.png")));
+        assertFalse(store.handles(root().resolve("a/note.md")));
+    }
+
+    @Test
+    public void mirrorFile_storesIdenticalContentOnce() throws IOException {
+        MindRefContentStore store = new MindRefContentStore(root());
+        Path first = target("a/image.png");
+        Path second = target("b/image.png");
+
+        assertTrue(store.mirrorFile(srcFile("doc1"), first, bytes(IMAGE)));
+        assertTrue(store.mirrorFile(srcFile("doc2"), second, bytes(IMAGE)));
+
+        assertArrayEquals(IMAGE, Files.readAllBytes(first));
+        assertArrayEquals(IMAGE, Files.readAllBytes(second));
+        assertEquals(1, store.objectCount());
+        assertEquals(1, objectFiles());
+    }
+
+    @Test
+    public void mirrorFile_skipsCurrentTarget() throws IOException {
+        MindRefContentStore store = new MindRefContentStore(root());
+        Path first = target("a/image.png");
+        store.mirrorFile(srcFile("doc1"), first, bytes(IMAGE));
+
+        assertFalse(store.mirrorFile(srcFile("doc1"), first, () -> {
+            throw new IOException("should not download");
+        }));
+    }
+
+    @Test
+    public void mirrorFile_skipsDuplicateNewerThanItsContent() throws IOException {
+        MindRefContentStore store = new MindRefContentStore(root());
+        store.mirrorFile(srcFile("doc1"), target("a/image.png"), bytes(IMAGE));
+        // Edited after the content was first stored, so newer than the object its path links to
+        MindRefFileData later = new MindRefFileData(null, "doc2", "doc2", "image/png", System.currentTimeMillis() + 60_000, IMAGE.length);
+        Path second = target("b/image.png");
+        store.mirrorFile(later, second, bytes(IMAGE));
+
+        assertFalse(store.mirrorFile(later, second, () -> {
+            throw new IOException("should not download");
+        }));
+    }
+
+    @Test
+    public void mirrorFile_rematerializingSameContentLeavesObjectUntouched() throws IOException {
+        MindRefContentStore store = new MindRefContentStore(root());
+        Path first = target("a/image.png");
+        store.mirrorFile(srcFile("doc1"), first, bytes(IMAGE));
+        Files.setLastModifiedTime(first, FileTime.fromMillis(1000L));
+        MindRefFileData touched = new MindRefFileData(null, "doc1", "doc1", "image/png", 2000L, IMAGE.length);
+
+        assertTrue(store.mirrorFile(touched, first, bytes(IMAGE)));
+
+        assertEquals(1000L, Files.getLastModifiedTime(first).toMillis());
+        assertFalse(Files.exists(first.resolveSibling("image.png" + MindRefRunner.PARTIAL_SUFFIX)));
+    }
+
+    @Test
+    public void mirrorFile_reusesKnownDocumentWithoutDownloading() throws IOException {
+        MindRefContentStore store = new MindRefContentStore(root());
+        Path first = target("a/image.png");
+        store.mirrorFile(srcFile("doc1"), first, bytes(IMAGE));
+        Files.delete(first);
+
+        assertTrue(store.mirrorFile(srcFile("doc1"), target("moved/image.png"), () -> {
+            throw new IOException("should not download");
+        }));
+        assertArrayEquals(IMAGE, Files.readAllBytes(root().resolve("moved/image.png")));
+    }
+
+    @Test
+    public void onPathRemoved_deletesContentOnlyOnceUnreferenced() throws IOException {
+        MindRefContentStore store = new MindRefContentStore(root());
+        Path first = target("a/image.png");
+        Path second = target("b/image.png");
+        store.mirrorFile(srcFile("doc1"), first, bytes(IMAGE));
+        store.mirrorFile(srcFile("doc2"), second, bytes(IMAGE));
+
+        Files.delete(first);
+        store.onPathRemoved(first, false);
+        assertEquals(1, objectFiles());
+        assertArrayEquals(IMAGE, Files.readAllBytes(second));
+
+        Files.delete(second);
+        store.onPathRemoved(second.getParent(), true);
+        assertEquals(0, objectFiles());
+    }
+
+    @Test
+    public void onPathRemoved_directoryLeavesSimilarlyNamedSibling() throws IOException {
+        MindRefContentStore store = new MindRefContentStore(root());
+        store.mirrorFile(srcFile("doc1"), target("a/image.png"), bytes(IMAGE));
+        store.mirrorFile(srcFile("doc2"), target("a/b/image.png"), bytes("nested".getBytes(StandardCharsets.UTF_8)));
+        store.mirrorFile(srcFile("doc3"), target("ab/image.png"), bytes("sibling".getBytes(StandardCharsets.UTF_8)));
+
+        store.onPathRemoved(root().resolve("a"), true);
+
+        assertEquals(1, store.objectCount());
+        assertEquals(1, objectFiles());
+    }
+
+    @Test
+    public void references_persistAcrossReopen() throws IOException {
+        MindRefContentStore store = new MindRefContentStore(root());
+        store.mirrorFile(srcFile("doc1"), target("a/image.png"), bytes(IMAGE));
+        store.mirrorFile(srcFile("doc2"), target("b/image.png"), bytes(IMAGE));
+        store.onMirrorFinished();
+
+        MindRefContentStore reopened = new MindRefContentStore(root());
+        reopened.onMirrorFinished();
+
+        assertEquals(1, reopened.objectCount());
+        assertEquals(1, objectFiles());
+    }
+
+    @Test
+    public void onMirrorFinished_collectsOrphanedContent() throws IOException {
+        Path orphan = target(MindRefRunner.METADATA_DIR_NAME + "/" + MindRefContentStore.OBJECTS_DIR_NAME + "/5-abc");
+        Files.write(orphan, "stale".getBytes(StandardCharsets.UTF_8));
+        MindRefContentStore store = new MindRefContentStore(root());
+
+        store.onMirrorFinished();
+
+        assertFalse(Files.exists(orphan));
+    }
+}
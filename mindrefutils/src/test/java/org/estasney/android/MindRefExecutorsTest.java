@@ -0,0 +1,43 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class MindRefExecutorsTest {
+
+    @Test
+    public void newWorkerPool_namesDaemonThreads() throws ExecutionException, InterruptedException {
+        ThreadPoolExecutor pool = MindRefExecutors.newWorkerPool("test-io", 2);
+        try {
+            Thread thread = pool.submit(Thread::currentThread).get();
+
+            assertEquals("test-io-1", thread.getName());
+            assertTrue(thread.isDaemon());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void newWorkerPool_releasesIdleThreads() {
+        ThreadPoolExecutor pool = MindRefExecutors.newWorkerPool("test-io", 2);
+        try {
+            assertTrue(pool.allowsCoreThreadTimeOut());
+            assertEquals(MindRefExecutors.IDLE_TIMEOUT_SECONDS, pool.getKeepAliveTime(TimeUnit.SECONDS));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void sharedWorkers_isProcessWide() {
+        assertSame(MindRefExecutors.sharedWorkers(), MindRefExecutors.sharedWorkers());
+    }
+}
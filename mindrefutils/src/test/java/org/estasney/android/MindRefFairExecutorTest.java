@@ -0,0 +1,77 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class MindRefFairExecutorTest {
+
+    @Test
+    public void lanes_areServedInTurn() throws InterruptedException {
+        MindRefFairExecutor executor = new MindRefFairExecutor("test-fair", 1);
+        MindRefFairExecutor.Lane a = executor.newLane("a");
+        MindRefFairExecutor.Lane b = executor.newLane("b");
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(5);
+        try {
+            // Occupies the only thread while both lanes queue up
+            a.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            for (String task : new String[]{"a1", "a2", "a3"}) {
+                a.execute(() -> {
+                    order.add(task);
+                    done.countDown();
+                });
+            }
+            for (String task : new String[]{"b1", "b2"}) {
+                b.execute(() -> {
+                    order.add(task);
+                    done.countDown();
+                });
+            }
+            release.countDown();
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("a1", "b1", "a2", "b2", "a3"), order);
+        } finally {
+            executor.close();
+        }
+    }
+
+    @Test
+    public void close_cancelsQueuedFutures() throws InterruptedException {
+        MindRefFairExecutor executor = new MindRefFairExecutor("test-fair", 1);
+        MindRefFairExecutor.Lane lane = executor.newLane("a");
+        CountDownLatch release = new CountDownLatch(1);
+        lane.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        ListenableFutureTask<Boolean> queued = ListenableFutureTask.create(() -> true);
+        lane.execute(queued);
+
+        executor.close();
+        release.countDown();
+
+        assertTrue(queued.isCancelled());
+    }
+}
@@ -27,6 +27,16 @@ public class MindRefFileUtilsTest {
         assertEquals("README", MindRefFileUtils.stripFileExt("README"));
     }
 
+    @Test
+    public void getFileExt_returnsLowerCaseExtension() {
+        assertEquals("md", MindRefFileUtils.getFileExt("topics/Note.MD"));
+    }
+
+    @Test
+    public void getFileExt_ignoresDotsInDirectories() {
+        assertEquals("", MindRefFileUtils.getFileExt("v1.2/README"));
+    }
+
     @Test
     public void combinePath_joinsPartsWithSeparator() {
         Path result = MindRefFileUtils.combinePath("notes", "topics", "gradle.md");
@@ -0,0 +1,166 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.database.ContentObserver;
+import android.database.Cursor;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class MindRefListingTest {
+
+    /**
+     * Cursor over child ids, flagged as loading or not
+     */
+    private static final class FakeRows implements InvocationHandler {
+        final List<String> ids;
+        final boolean loading;
+        // Notify observers once the rows have been read, as a provider that finished fetching would
+        final boolean notifyWhenRead;
+        private int position = -1;
+        private ContentObserver observer;
+
+        FakeRows(boolean loading, boolean notifyWhenRead, String... ids) {
+            this.ids = Arrays.asList(ids);
+            this.loading = loading;
+            this.notifyWhenRead = notifyWhenRead;
+        }
+
+        Cursor cursor() {
+            return (Cursor) Proxy.newProxyInstance(Cursor.class.getClassLoader(), new Class<?>[]{Cursor.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "moveToNext":
+                    position++;
+                    if (position >= ids.size() && notifyWhenRead && observer != null) {
+                        observer.onChange(false);
+                    }
+                    return position < ids.size();
+                case "getString":
+                    return (int) args[0] == 2 ? "text/markdown" : ids.get(position);
+                case "getLong":
+                    return 0L;
+                case "isNull":
+                    return true;
+                case "registerContentObserver":
+                    observer = (ContentObserver) args[0];
+                    return null;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private static final class Recorder implements MindRefListing.Callback {
+        final List<String> ids = Collections.synchronizedList(new ArrayList<>());
+        final BlockingQueue<Object> outcome = new ArrayBlockingQueue<>(1);
+
+        @Override
+        public void onPage(MindRefFileData[] page) {
+            for (MindRefFileData child : page) {
+                ids.add(child.documentId);
+            }
+        }
+
+        @Override
+        public void onComplete(int total) {
+            outcome.add(total);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            outcome.add(t);
+        }
+    }
+
+    private static MindRefListing listing(BlockingQueue<FakeRows> results, Recorder recorder, long loadingTimeoutMs) {
+        return listing(results, recorder, 10, loadingTimeoutMs);
+    }
+
+    private static MindRefListing listing(BlockingQueue<FakeRows> results, Recorder recorder, int pageSize, long loadingTimeoutMs) {
+        return new MindRefListing(null, (childrenUri, cancellationSignal) -> {
+            FakeRows rows = results.poll();
+            return rows == null ? null : rows.cursor();
+        }, pageSize, Runnable::run, recorder, loadingTimeoutMs) {
+            @Override
+            boolean isLoading(Cursor cursor) {
+                return ((FakeRows) Proxy.getInvocationHandler(cursor)).loading;
+            }
+        };
+    }
+
+    @Test
+    public void run_deliversPagesInReadOrder() throws InterruptedException {
+        BlockingQueue<FakeRows> results = new ArrayBlockingQueue<>(1);
+        results.add(new FakeRows(false, false, "a", "b", "c", "d", "e"));
+        Recorder recorder = new Recorder();
+
+        listing(results, recorder, 2, 5_000).run();
+
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), recorder.ids);
+        assertEquals(5, recorder.outcome.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void run_requeriesLoadingProvider() throws InterruptedException {
+        BlockingQueue<FakeRows> results = new ArrayBlockingQueue<>(2);
+        results.add(new FakeRows(true, true, "a"));
+        results.add(new FakeRows(false, false, "a", "b"));
+        Recorder recorder = new Recorder();
+
+        listing(results, recorder, 5_000).run();
+
+        assertEquals(Arrays.asList("a", "b"), recorder.ids);
+        assertEquals(2, recorder.outcome.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void run_failsWhenProviderNeverFinishesLoading() throws InterruptedException {
+        BlockingQueue<FakeRows> results = new ArrayBlockingQueue<>(1);
+        results.add(new FakeRows(true, false, "a"));
+        Recorder recorder = new Recorder();
+
+        listing(results, recorder, 50).run();
+
+        assertEquals(Collections.singletonList("a"), recorder.ids);
+        assertTrue(recorder.outcome.poll(1, TimeUnit.SECONDS) instanceof TimeoutException);
+    }
+
+    @Test
+    public void cancel_wakesLoadingWait() throws InterruptedException {
+        BlockingQueue<FakeRows> results = new ArrayBlockingQueue<>(1);
+        results.add(new FakeRows(true, false, "a"));
+        Recorder recorder = new Recorder();
+        MindRefListing listing = listing(results, recorder, 30_000);
+        Thread thread = new Thread(listing);
+        thread.start();
+        // Wait until the first page is out, the listing then waits on the provider
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (recorder.ids.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        listing.cancel();
+
+        thread.join(1_000);
+        assertFalse(thread.isAlive());
+        assertTrue(recorder.outcome.isEmpty());
+    }
+}
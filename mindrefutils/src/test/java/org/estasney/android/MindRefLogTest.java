@@ -0,0 +1,48 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class MindRefLogTest {
+
+    @After
+    public void restoreLevel() {
+        MindRefLog.setLevel(MindRefLog.DEFAULT_LEVEL);
+    }
+
+    @Test
+    public void format_fillsPlaceholdersInOrder() {
+        assertEquals("Mirrored 3 items in 12ms", MindRefLog.format("Mirrored {} items in {}ms", 3, 12L));
+    }
+
+    @Test
+    public void format_leavesSurplusPlaceholders() {
+        assertEquals("a null {}", MindRefLog.format("a {} {}", (Object) null));
+    }
+
+    @Test
+    public void isLoggable_followsLevel() {
+        MindRefLog.setLevel(Log.WARN);
+        assertFalse(MindRefLog.isLoggable(Log.DEBUG));
+        assertTrue(MindRefLog.isLoggable(Log.ERROR));
+
+        MindRefLog.setLevel(MindRefLog.NONE);
+        assertFalse(MindRefLog.isLoggable(Log.ASSERT));
+    }
+
+    @Test
+    public void rateLimit_countsDroppedMessages() {
+        MindRefLog.RateLimit limit = new MindRefLog.RateLimit(2);
+
+        assertEquals(0, limit.acquire());
+        assertEquals(0, limit.acquire());
+        assertEquals(-1, limit.acquire());
+        assertEquals(-1, limit.acquire());
+    }
+}
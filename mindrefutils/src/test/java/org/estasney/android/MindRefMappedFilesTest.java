@@ -0,0 +1,92 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+public class MindRefMappedFilesTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static String read(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void map_returnsReadOnlyIndependentViews() throws IOException {
+        Path root = tmp.getRoot().toPath();
+        Files.write(root.resolve("a.bin"), "hello".getBytes(StandardCharsets.UTF_8));
+        MindRefMappedFiles files = new MindRefMappedFiles(root, 4, 1024);
+
+        ByteBuffer first = files.map("a.bin");
+        assertEquals("hello", read(first));
+        ByteBuffer second = files.map("a.bin");
+
+        assertTrue(second.isReadOnly());
+        assertTrue(second.isDirect());
+        assertEquals("hello", read(second));
+        assertEquals(1, files.size());
+    }
+
+    @Test
+    public void map_remapsReplacedFile() throws IOException {
+        Path root = tmp.getRoot().toPath();
+        Path target = root.resolve("a.bin");
+        Files.write(target, "old".getBytes(StandardCharsets.UTF_8));
+        MindRefMappedFiles files = new MindRefMappedFiles(root, 4, 1024);
+        files.map("a.bin");
+
+        // Replaced the way the mirror writes, by moving a new file over it
+        Path partial = root.resolve("a.bin.partial");
+        Files.write(partial, "newer".getBytes(StandardCharsets.UTF_8));
+        Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        assertEquals("newer", read(files.map("a.bin")));
+        assertEquals(5, files.mappedBytes());
+    }
+
+    @Test
+    public void map_evictsLeastRecentlyUsed() throws IOException {
+        Path root = tmp.getRoot().toPath();
+        for (String name : new String[]{"a", "b", "c"}) {
+            Files.write(root.resolve(name), "1234".getBytes(StandardCharsets.UTF_8));
+        }
+        MindRefMappedFiles files = new MindRefMappedFiles(root, 2, 1024);
+        files.map("a");
+        files.map("b");
+        files.map("a");
+        files.map("c");
+
+        assertEquals(2, files.size());
+        assertEquals(8, files.mappedBytes());
+    }
+
+    @Test
+    public void onPathRemoved_dropsMappingsUnderDirectory() throws IOException {
+        Path root = tmp.getRoot().toPath();
+        Files.createDirectories(root.resolve("dir"));
+        Files.write(root.resolve("dir/a"), "1234".getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("b"), "1234".getBytes(StandardCharsets.UTF_8));
+        MindRefMappedFiles files = new MindRefMappedFiles(root, 4, 1024);
+        files.map("dir/a");
+        files.map("b");
+
+        files.onPathRemoved(root.resolve("dir"), true);
+
+        assertEquals(1, files.size());
+        assertEquals(4, files.mappedBytes());
+    }
+}
@@ -0,0 +1,55 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class MindRefMirrorCheckpointTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void flush_persistsCompletedDirectoriesForSameSource() throws IOException {
+        Path root = tempFolder.getRoot().toPath();
+        MindRefMirrorCheckpoint checkpoint = new MindRefMirrorCheckpoint(root, "content://notes");
+        checkpoint.markComplete("gradle", null);
+        checkpoint.flush(null);
+
+        MindRefMirrorCheckpoint resumed = new MindRefMirrorCheckpoint(root, "content://notes");
+
+        assertTrue(resumed.isComplete("gradle"));
+        assertFalse(resumed.isComplete("python"));
+    }
+
+    @Test
+    public void constructor_discardsCheckpointOfAnotherSource() throws IOException {
+        Path root = tempFolder.getRoot().toPath();
+        MindRefMirrorCheckpoint checkpoint = new MindRefMirrorCheckpoint(root, "content://notes");
+        checkpoint.markComplete("gradle", null);
+        checkpoint.flush(null);
+
+        MindRefMirrorCheckpoint other = new MindRefMirrorCheckpoint(root, "content://other");
+
+        assertFalse(other.isComplete("gradle"));
+    }
+
+    @Test
+    public void delete_startsNextMirrorFromRoot() throws IOException {
+        Path root = tempFolder.getRoot().toPath();
+        MindRefMirrorCheckpoint checkpoint = new MindRefMirrorCheckpoint(root, "content://notes");
+        checkpoint.markComplete("gradle", null);
+        checkpoint.flush(null);
+        checkpoint.delete();
+
+        MindRefMirrorCheckpoint next = new MindRefMirrorCheckpoint(root, "content://notes");
+
+        assertFalse(next.isComplete("gradle"));
+    }
+}
@@ -0,0 +1,70 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.provider.DocumentsContract;
+
+import org.junit.Test;
+
+public class MindRefMirrorFilterTest {
+
+    private static MindRefFileData file(String name, String mimeType, long size) {
+        return new MindRefFileData(null, name, name, mimeType, 0L, size);
+    }
+
+    private static MindRefFileData directory(String name) {
+        return new MindRefFileData(null, name, name, DocumentsContract.Document.MIME_TYPE_DIR, 0L);
+    }
+
+    @Test
+    public void accepts_excludeGlobPrunesDirectoriesAtAnyDepth() {
+        MindRefMirrorFilter filter = new MindRefMirrorFilter().exclude("**/node_modules");
+
+        assertFalse(filter.accepts(directory("node_modules"), "tools/node_modules"));
+        assertTrue(filter.accepts(directory("tools"), "tools"));
+    }
+
+    @Test
+    public void accepts_includeGlobAppliesToFilesOnly() {
+        MindRefMirrorFilter filter = new MindRefMirrorFilter().include("**.md");
+
+        assertTrue(filter.accepts(file("build.md", "text/markdown", 10), "gradle/build.md"));
+        assertFalse(filter.accepts(file("build.gradle", "text/plain", 10), "gradle/build.gradle"));
+        assertTrue(filter.accepts(directory("gradle"), "gradle"));
+    }
+
+    @Test
+    public void accepts_mimeTypeWildcard() {
+        MindRefMirrorFilter filter = new MindRefMirrorFilter().allowMimeType("image/*");
+
+        assertTrue(filter.accepts(file("a.png", "image/png", 10), "a.png"));
+        assertFalse(filter.accepts(file("a.mp4", "video/mp4", 10), "a.mp4"));
+    }
+
+    @Test
+    public void accepts_maxFileSize() {
+        MindRefMirrorFilter filter = new MindRefMirrorFilter().setMaxFileSize(100);
+
+        assertTrue(filter.accepts(file("small.md", "text/markdown", 100), "small.md"));
+        assertFalse(filter.accepts(file("large.md", "text/markdown", 101), "large.md"));
+    }
+
+    @Test
+    public void accepts_maxDepthCountsSegments() {
+        MindRefMirrorFilter filter = new MindRefMirrorFilter().setMaxDepth(2);
+
+        assertTrue(filter.accepts(directory("gradle"), "gradle"));
+        assertTrue(filter.accepts(file("build.md", "text/markdown", 1), "gradle/build.md"));
+        assertFalse(filter.accepts(directory("sub"), "gradle/sub"));
+    }
+
+    @Test
+    public void acceptsLocal_keepsFilesOutsideTheFilter() {
+        MindRefMirrorFilter filter = new MindRefMirrorFilter().exclude("media/**").allowMimeType("text/*");
+
+        assertFalse(filter.acceptsLocal("media/video.mp4", false, 10));
+        assertFalse(filter.acceptsLocal("photo.png", false, 10));
+        assertTrue(filter.acceptsLocal("notes.txt", false, 10));
+    }
+}
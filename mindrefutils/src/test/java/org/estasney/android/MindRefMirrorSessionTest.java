@@ -0,0 +1,72 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MindRefMirrorSessionTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void finish_dropsCheckpointDespiteFailures() throws IOException {
+        Path root = tempFolder.getRoot().toPath();
+        MindRefMirrorCheckpoint checkpoint = new MindRefMirrorCheckpoint(root, "content://notes");
+        checkpoint.markComplete("gradle", null);
+        MindRefMirrorSession session = new MindRefMirrorSession(root.toFile()).setCheckpoint(checkpoint);
+        session.recordFailure(root.resolve("python/venv.md"), new IOException("provider gone"));
+
+        session.finish();
+
+        assertFalse(new MindRefMirrorCheckpoint(root, "content://notes").isComplete("gradle"));
+    }
+
+    @Test
+    public void shouldRetry_onlyProviderFailures() {
+        MindRefMirrorSession session = new MindRefMirrorSession(tempFolder.getRoot()).setRetry(3, 0);
+
+        assertTrue(session.shouldRetry(new MindRefProviderException("pipe closed"), 1));
+        assertFalse(session.shouldRetry(new MindRefProviderException("pipe closed"), 3));
+        assertFalse(session.shouldRetry(new FileNotFoundException("gone"), 1));
+        assertFalse(session.shouldRetry(new AccessDeniedException("notes/a.md"), 1));
+        assertFalse(session.shouldRetry(new IOException("No space left on device"), 1));
+    }
+
+    @Test
+    public void shouldRetry_providerThatDied() {
+        MindRefMirrorSession session = new MindRefMirrorSession(tempFolder.getRoot()).setRetry(3, 0);
+
+        assertTrue(session.shouldRetry(MindRefProviderException.classify(
+                new FileNotFoundException("Dead content provider: content://notes/document/a.md")), 1));
+        assertTrue(session.shouldRetry(MindRefProviderException.classify(
+                new FileNotFoundException("Failed opening content provider: content://notes/document/a.md")), 1));
+        assertFalse(session.shouldRetry(MindRefProviderException.classify(
+                new FileNotFoundException("Missing file for primary:Notes/a.md")), 1));
+    }
+
+    @Test
+    public void callWithRetry_runsOnControllerExecutor() throws IOException {
+        AtomicInteger executed = new AtomicInteger();
+        Executor executor = task -> {
+            executed.incrementAndGet();
+            task.run();
+        };
+        MindRefMirrorSession session = new MindRefMirrorSession(tempFolder.getRoot())
+                .setController(new MindRefConcurrencyController(executor, 1, 4, 2));
+
+        assertEquals("listed", session.callWithRetry(() -> "listed"));
+        assertEquals(1, executed.get());
+    }
+}
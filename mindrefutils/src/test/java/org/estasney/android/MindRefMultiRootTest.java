@@ -0,0 +1,82 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+public class MindRefMultiRootTest {
+
+    private static final class Recorder implements MindRefMultiRoot.RootCallback {
+        final List<String> outcomes = new ArrayList<>();
+
+        @Override
+        public void onRootComplete(String appStorageRoot, MindRefStats stats) {
+            outcomes.add(appStorageRoot + " complete");
+        }
+
+        @Override
+        public void onRootFailure(String appStorageRoot, Throwable t) {
+            outcomes.add(appStorageRoot + " failed: " + t.getMessage());
+        }
+    }
+
+    @Test
+    public void combine_reportsEachRootAsItCompletes() {
+        SettableFuture<MindRefStats> notes = SettableFuture.create();
+        SettableFuture<MindRefStats> work = SettableFuture.create();
+        LinkedHashMap<String, ListenableFuture<MindRefStats>> tasks = new LinkedHashMap<>();
+        tasks.put("notes", notes);
+        tasks.put("work", work);
+        Recorder recorder = new Recorder();
+
+        ListenableFuture<MindRefStats> total = MindRefMultiRoot.combine(1, 0, tasks, recorder, MoreExecutors.directExecutor());
+        work.setException(new IOException("provider gone"));
+
+        assertEquals(Collections.singletonList("work failed: provider gone"), recorder.outcomes);
+        assertFalse(total.isDone());
+
+        notes.set(new MindRefStats(1, 3, 2, 1, 100, 5));
+
+        assertEquals(Arrays.asList("work failed: provider gone", "notes complete"), recorder.outcomes);
+        assertTrue(total.isDone());
+    }
+
+    @Test
+    public void combine_totalsRootsAndPrefixesFailures() throws Exception {
+        LinkedHashMap<String, ListenableFuture<MindRefStats>> tasks = new LinkedHashMap<>();
+        SettableFuture<MindRefStats> notes = SettableFuture.create();
+        notes.set(new MindRefStats(1, 3, 2, 1, 100, 5, Collections.singletonList(
+                new MindRefStats.Failure("gradle/build.md", "pipe closed", new IOException("pipe closed")))));
+        SettableFuture<MindRefStats> work = SettableFuture.create();
+        work.set(new MindRefStats(1, 4, 1, 0, 50, 5));
+        SettableFuture<MindRefStats> broken = SettableFuture.create();
+        broken.setException(new IOException("not a directory"));
+        tasks.put("notes", notes);
+        tasks.put("work", work);
+        tasks.put("broken", broken);
+
+        MindRefStats total = MindRefMultiRoot.combine(1, 0, tasks, null, MoreExecutors.directExecutor()).get();
+
+        assertEquals(7, total.filesVisited);
+        assertEquals(3, total.filesWritten);
+        assertEquals(1, total.pathsRemoved);
+        assertEquals(150, total.bytesWritten);
+        assertEquals(2, total.failures.size());
+        assertEquals("notes/gradle/build.md", total.failures.get(0).path);
+        assertEquals("broken", total.failures.get(1).path);
+        assertEquals("not a directory", total.failures.get(1).error);
+    }
+}
@@ -0,0 +1,46 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class MindRefRunnerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void mirrorFileAndNotify_recordsListenerFailureForTheItem() throws IOException {
+        Path root = tempFolder.getRoot().toPath();
+        // Newer than the source, so nothing is read from the provider
+        Path note = root.resolve("note.md");
+        Files.write(note, "current".getBytes(StandardCharsets.UTF_8));
+        MindRefMirrorSession session = new MindRefMirrorSession(root.toFile()).setListener(new MindRefMirrorListener() {
+            @Override
+            public void onFileMirrored(Path targetPath, MindRefFileData srcFile, boolean changed) throws IOException {
+                throw new IOException("cannot index");
+            }
+
+            @Override
+            public void onPathRemoved(Path targetPath, boolean isDirectory) {
+            }
+        });
+        MindRefFileData srcFile = new MindRefFileData(null, "primary:Notes/note.md", "note.md", "text/markdown", 1000L);
+
+        MindRefRunner.FileOutcome outcome = MindRefRunner.mirrorFileAndNotify(srcFile, note, null, session, null, 1);
+
+        assertEquals(MindRefRunner.FileOutcome.FAILED, outcome);
+        List<MindRefStats.Failure> failures = session.getFailures();
+        assertEquals(1, failures.size());
+        assertEquals("note.md", failures.get(0).path);
+        assertEquals("cannot index", failures.get(0).error);
+    }
+}
@@ -0,0 +1,121 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class MindRefSearchIndexTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path writeNote(String relativePath, String text) throws IOException {
+        Path note = tempFolder.getRoot().toPath().resolve(relativePath);
+        Files.createDirectories(note.getParent());
+        Files.write(note, text.getBytes(StandardCharsets.UTF_8));
+        return note;
+    }
+
+    @Test
+    public void search_matchesWordCaseInsensitively() throws IOException {
+        MindRefSearchIndex index = new MindRefSearchIndex(tempFolder.getRoot().toPath());
+        index.onFileMirrored(writeNote("gradle/build.md", "Configure the Gradle daemon"), null, true);
+        index.onFileMirrored(writeNote("python/venv.md", "Create a virtual environment"), null, true);
+
+        assertEquals(Collections.singletonList("gradle/build.md"), index.search("gradle"));
+    }
+
+    @Test
+    public void search_matchesPrefix() throws IOException {
+        MindRefSearchIndex index = new MindRefSearchIndex(tempFolder.getRoot().toPath());
+        index.onFileMirrored(writeNote("a.md", "configure"), null, true);
+        index.onFileMirrored(writeNote("b.md", "configuration"), null, true);
+        index.onFileMirrored(writeNote("c.md", "config"), null, true);
+
+        assertEquals(Arrays.asList("a.md", "b.md"), index.search("configu*"));
+    }
+
+    @Test
+    public void search_matchesPhraseOnlyWhenConsecutive() throws IOException {
+        MindRefSearchIndex index = new MindRefSearchIndex(tempFolder.getRoot().toPath());
+        index.onFileMirrored(writeNote("a.md", "the quick brown fox"), null, true);
+        index.onFileMirrored(writeNote("b.md", "the brown quick fox"), null, true);
+
+        assertEquals(Collections.singletonList("a.md"), index.search("\"quick brown\""));
+    }
+
+    @Test
+    public void search_ignoresNonTextFiles() throws IOException {
+        MindRefSearchIndex index = new MindRefSearchIndex(tempFolder.getRoot().toPath());
+        index.onFileMirrored(writeNote("image.png", "gradle"), null, true);
+
+        assertTrue(index.search("gradle").isEmpty());
+    }
+
+    @Test
+    public void onPathRemoved_dropsEverythingBelowDirectory() throws IOException {
+        Path root = tempFolder.getRoot().toPath();
+        MindRefSearchIndex index = new MindRefSearchIndex(root);
+        index.onFileMirrored(writeNote("gradle/build.md", "daemon"), null, true);
+        index.onFileMirrored(writeNote("gradle/sub/wrapper.md", "daemon"), null, true);
+        index.onFileMirrored(writeNote("other.md", "daemon"), null, true);
+
+        index.onPathRemoved(root.resolve("gradle"), true);
+
+        assertEquals(Collections.singletonList("other.md"), index.search("daemon"));
+    }
+
+    @Test
+    public void onFileMirrored_reindexesChangedFile() throws IOException {
+        MindRefSearchIndex index = new MindRefSearchIndex(tempFolder.getRoot().toPath());
+        index.onFileMirrored(writeNote("a.md", "before"), null, true);
+        index.onFileMirrored(writeNote("a.md", "after"), null, true);
+
+        assertTrue(index.search("before").isEmpty());
+        assertEquals(Collections.singletonList("a.md"), index.search("after"));
+    }
+
+    @Test
+    public void save_roundTripsThroughDisk() throws IOException {
+        Path root = tempFolder.getRoot().toPath();
+        MindRefSearchIndex index = new MindRefSearchIndex(root);
+        index.onFileMirrored(writeNote("a.md", "alpha beta"), null, true);
+        index.onFileMirrored(writeNote("b.md", "beta gamma"), null, true);
+        index.onPathRemoved(root.resolve("a.md"), false);
+        index.onMirrorFinished();
+
+        MindRefSearchIndex reopened = new MindRefSearchIndex(root);
+
+        assertEquals(1, reopened.size());
+        assertEquals(Collections.singletonList("b.md"), reopened.search("\"beta gamma\""));
+    }
+
+    @Test
+    public void onFileMirrored_reindexesFileWrittenAfterLastSave() throws IOException {
+        Path root = tempFolder.getRoot().toPath();
+        MindRefSearchIndex index = new MindRefSearchIndex(root);
+        Path note = writeNote("a.md", "alpha");
+        index.onFileMirrored(note, null, true);
+        index.onMirrorFinished();
+        // Written by a mirror that died before saving the index
+        writeNote("a.md", "omega");
+        Files.setLastModifiedTime(note, FileTime.fromMillis(Files.getLastModifiedTime(note).toMillis() + 1000));
+
+        MindRefSearchIndex reopened = new MindRefSearchIndex(root);
+        reopened.onFileMirrored(note, null, false);
+
+        assertTrue(reopened.search("alpha").isEmpty());
+        assertEquals(Collections.singletonList("a.md"), reopened.search("omega"));
+    }
+}
@@ -0,0 +1,138 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+public class MindRefSnapshotsTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path root() {
+        return tempFolder.getRoot().toPath().resolve("notes");
+    }
+
+    private static void write(Path path, String text) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Replace a file the way a mirror does, by moving a new file into place
+     */
+    private static void replace(Path path, String text) throws IOException {
+        Path partial = path.resolveSibling(path.getFileName() + MindRefRunner.PARTIAL_SUFFIX);
+        write(partial, text);
+        Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Test
+    public void publish_adoptsExistingDirectory() throws IOException {
+        write(root().resolve("a/note.md"), "old");
+        MindRefSnapshots snapshots = new MindRefSnapshots(root());
+
+        Path staging = snapshots.prepareStaging();
+        assertEquals("old", read(staging.resolve("a/note.md")));
+        replace(staging.resolve("a/note.md"), "new");
+        snapshots.publish();
+
+        assertTrue(Files.isSymbolicLink(root()));
+        assertEquals("new", read(root().resolve("a/note.md")));
+    }
+
+    @Test
+    public void stagedChanges_invisibleUntilPublished() throws IOException {
+        write(root().resolve("a/note.md"), "v1");
+        MindRefSnapshots snapshots = new MindRefSnapshots(root());
+        snapshots.prepareStaging();
+        snapshots.publish();
+
+        Path staging = snapshots.prepareStaging();
+        replace(staging.resolve("a/note.md"), "v2");
+        Files.delete(staging.resolve("a/note.md"));
+        write(staging.resolve("b/added.md"), "added");
+
+        assertEquals("v1", read(root().resolve("a/note.md")));
+        assertFalse(Files.exists(root().resolve("b/added.md")));
+
+        snapshots.publish();
+
+        assertFalse(Files.exists(root().resolve("a/note.md")));
+        assertEquals("added", read(root().resolve("b/added.md")));
+    }
+
+    @Test
+    public void prepareStaging_resumesInterruptedStaging() throws IOException {
+        write(root().resolve("note.md"), "v1");
+        MindRefSnapshots snapshots = new MindRefSnapshots(root());
+        Path staging = snapshots.prepareStaging();
+        write(staging.resolve("partial-progress.md"), "kept");
+
+        assertEquals(staging, snapshots.prepareStaging());
+        assertTrue(Files.exists(staging.resolve("partial-progress.md")));
+    }
+
+    @Test
+    public void publish_keepsOnlyPreviousSnapshot() throws IOException {
+        write(root().resolve("note.md"), "v0");
+        MindRefSnapshots snapshots = new MindRefSnapshots(root());
+        Path previous = null;
+        for (int i = 1; i <= 3; i++) {
+            replace(snapshots.prepareStaging().resolve("note.md"), "v" + i);
+            previous = snapshots.current();
+            snapshots.publish();
+        }
+
+        assertEquals("v3", read(root().resolve("note.md")));
+        assertEquals("v2", read(previous.resolve("note.md")));
+        Path snapshotsDir = root().resolveSibling(".notes.snapshots");
+        assertFalse(Files.exists(snapshotsDir.resolve("v0")));
+        assertFalse(Files.exists(snapshotsDir.resolve("v1")));
+    }
+
+    @Test
+    public void prepareStaging_copiesMutableMetadataAndDropsCheckpoint() throws IOException {
+        Path metadata = root().resolve(MindRefRunner.METADATA_DIR_NAME);
+        write(root().resolve("image.png"), "image");
+        write(metadata.resolve(MindRefCatalog.CATALOG_FILE_NAME), "catalog");
+        write(metadata.resolve(MindRefMirrorCheckpoint.CHECKPOINT_FILE_NAME), "checkpoint");
+        write(metadata.resolve(MindRefContentStore.OBJECTS_DIR_NAME).resolve("5-abc"), "image");
+        MindRefSnapshots snapshots = new MindRefSnapshots(root());
+
+        Path staging = snapshots.prepareStaging();
+        Path stagedMetadata = staging.resolve(MindRefRunner.METADATA_DIR_NAME);
+
+        assertTrue(Files.isSameFile(root().resolve("image.png"), staging.resolve("image.png")));
+        assertTrue(Files.isSameFile(metadata.resolve(MindRefContentStore.OBJECTS_DIR_NAME).resolve("5-abc"),
+                stagedMetadata.resolve(MindRefContentStore.OBJECTS_DIR_NAME).resolve("5-abc")));
+        assertFalse(Files.isSameFile(metadata.resolve(MindRefCatalog.CATALOG_FILE_NAME),
+                stagedMetadata.resolve(MindRefCatalog.CATALOG_FILE_NAME)));
+        assertEquals("catalog", read(stagedMetadata.resolve(MindRefCatalog.CATALOG_FILE_NAME)));
+        assertFalse(Files.exists(stagedMetadata.resolve(MindRefMirrorCheckpoint.CHECKPOINT_FILE_NAME)));
+    }
+
+    @Test
+    public void publish_dropsCheckpointOfStagedRun() throws IOException {
+        MindRefSnapshots snapshots = new MindRefSnapshots(root());
+        write(snapshots.prepareStaging().resolve(MindRefRunner.METADATA_DIR_NAME).resolve(MindRefMirrorCheckpoint.CHECKPOINT_FILE_NAME), "checkpoint");
+
+        Path published = snapshots.publish();
+
+        assertFalse(Files.exists(published.resolve(MindRefRunner.METADATA_DIR_NAME).resolve(MindRefMirrorCheckpoint.CHECKPOINT_FILE_NAME)));
+    }
+}
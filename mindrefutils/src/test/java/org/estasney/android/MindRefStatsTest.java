@@ -0,0 +1,56 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MindRefStatsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void collector_countsVisitedWrittenAndRemoved() throws IOException {
+        Path root = tmp.getRoot().toPath();
+        Path written = Files.write(root.resolve("a.md"), new byte[10]);
+        Path current = Files.write(root.resolve("b.md"), new byte[20]);
+        MindRefStats.Collector collector = new MindRefStats.Collector(7);
+
+        collector.onFileMirrored(written, null, true);
+        collector.onFileMirrored(current, null, false);
+        collector.onPathRemoved(root.resolve("gone"), true);
+        MindRefStats stats = collector.build(new ArrayList<>());
+
+        assertEquals(7, stats.key);
+        assertEquals(2, stats.filesVisited);
+        assertEquals(1, stats.filesWritten);
+        assertEquals(10, stats.bytesWritten);
+        assertEquals(1, stats.pathsRemoved);
+        assertEquals(0, stats.failures.size());
+    }
+
+    @Test
+    public void collector_carriesFailures() {
+        IOException cause = new IOException("provider gone");
+        List<MindRefStats.Failure> failures = new ArrayList<>();
+        failures.add(new MindRefStats.Failure("a/b.md", "provider gone", cause));
+        failures.add(new MindRefStats.Failure("c", "denied", new SecurityException("denied")));
+
+        MindRefStats stats = new MindRefStats.Collector(1).build(failures);
+        // Later changes to the session's list don't reach the result
+        failures.clear();
+
+        assertEquals(2, stats.failures.size());
+        assertEquals("a/b.md", stats.failures.get(0).path);
+        assertSame(cause, stats.failures.get(0).cause);
+    }
+}
@@ -0,0 +1,135 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class MindRefThumbnailsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static MindRefFileData image(String documentId, long lastModified) {
+        return new MindRefFileData(null, documentId, "cover.jpg", "image/jpeg", lastModified);
+    }
+
+    @Test
+    public void sampleSize_keepsSmallerSideAtLeastTarget() {
+        assertEquals(1, MindRefThumbnails.sampleSize(300, 200, 256));
+        assertEquals(4, MindRefThumbnails.sampleSize(2000, 1200, 256));
+        assertEquals(8, MindRefThumbnails.sampleSize(3000, 4000, 256));
+    }
+
+    @Test
+    public void thumbnailPath_changesWithSource() throws IOException {
+        Path dir = tmp.getRoot().toPath();
+        Path first = MindRefThumbnails.thumbnailPath(dir, image("primary:Notes/a/cover.jpg", 1000L));
+
+        assertEquals(first, MindRefThumbnails.thumbnailPath(dir, image("primary:Notes/a/cover.jpg", 1000L)));
+        assertNotEquals(first, MindRefThumbnails.thumbnailPath(dir, image("primary:Notes/a/cover.jpg", 2000L)));
+        assertNotEquals(first, MindRefThumbnails.thumbnailPath(dir, image("primary:Notes/b/cover.jpg", 1000L)));
+        assertEquals(dir, first.getParent());
+    }
+
+    @Test
+    public void get_reusesCachedThumbnail() throws IOException {
+        Path root = tmp.getRoot().toPath();
+        MindRefFileData source = image("primary:Notes/a/cover.jpg", 1000L);
+        Path cached = MindRefThumbnails.thumbnailPath(
+                root.resolve(MindRefRunner.METADATA_DIR_NAME).resolve(MindRefThumbnails.THUMBNAILS_DIR_NAME), source);
+        Files.createDirectories(cached.getParent());
+        Files.write(cached, new byte[]{1, 2, 3});
+
+        // Without a resolver, anything but the cached file would fail
+        MindRefThumbnails thumbnails = new MindRefThumbnails(root, 256, null);
+
+        assertEquals(cached, thumbnails.get(source));
+    }
+
+    @Test
+    public void onFileMirrored_skipsNonImages() throws IOException {
+        Path root = tmp.getRoot().toPath();
+        Path note = root.resolve("note.md");
+        Files.write(note, new byte[]{1});
+        MindRefThumbnails thumbnails = new MindRefThumbnails(root, 256, null);
+
+        thumbnails.onFileMirrored(note, new MindRefFileData(null, "primary:Notes/note.md", "note.md", "text/markdown", 1000L), true);
+
+        assertFalse(Files.exists(root.resolve(MindRefRunner.METADATA_DIR_NAME)));
+        assertTrue(Files.exists(note));
+    }
+
+    @Test
+    public void generatePending_skipsImagesThatCannotBeRead() throws IOException {
+        Path root = tmp.getRoot().toPath();
+        MindRefThumbnails thumbnails = new MindRefThumbnails(root, 256, null);
+        thumbnails.onMirrorStarted(root);
+        MindRefFileData source = image("primary:Notes/cover.jpg", 1000L);
+
+        // Removed before the thumbnail was generated, opening it fails
+        thumbnails.onFileMirrored(root.resolve("cover.jpg"), source, true);
+        thumbnails.onMirrorFinished();
+        thumbnails.generatePending();
+
+        assertFalse(Files.exists(MindRefThumbnails.thumbnailPath(thumbnailsDir(root), source)));
+    }
+
+    @Test
+    public void onPathRemoved_deletesThumbnailsOfRemovedImages() throws IOException {
+        Path root = tmp.getRoot().toPath();
+        MindRefFileData first = image("primary:Notes/a/cover.jpg", 1000L);
+        MindRefFileData second = image("primary:Notes/b/cover.jpg", 1000L);
+        Path firstThumbnail = cached(root, first);
+        Path secondThumbnail = cached(root, second);
+        MindRefThumbnails thumbnails = new MindRefThumbnails(root, 256, null);
+        thumbnails.onMirrorStarted(root);
+        thumbnails.onFileMirrored(root.resolve("a/cover.jpg"), first, false);
+        thumbnails.onFileMirrored(root.resolve("b/cover.jpg"), second, false);
+        thumbnails.onMirrorFinished();
+
+        thumbnails.onPathRemoved(root.resolve("a/cover.jpg"), false);
+        assertFalse(Files.exists(firstThumbnail));
+        assertTrue(Files.exists(secondThumbnail));
+
+        // Recorded in the index, so a later mirror removes it too
+        MindRefThumbnails reopened = new MindRefThumbnails(root, 256, null);
+        reopened.onMirrorStarted(root);
+        reopened.onPathRemoved(root.resolve("b"), true);
+        assertFalse(Files.exists(secondThumbnail));
+    }
+
+    @Test
+    public void onPathRemoved_keepsThumbnailOfMovedImage() throws IOException {
+        Path root = tmp.getRoot().toPath();
+        MindRefFileData moved = image("primary:Notes/cover.jpg", 1000L);
+        Path thumbnail = cached(root, moved);
+        MindRefThumbnails thumbnails = new MindRefThumbnails(root, 256, null);
+        thumbnails.onMirrorStarted(root);
+        thumbnails.onFileMirrored(root.resolve("a/cover.jpg"), moved, false);
+
+        thumbnails.onFileMirrored(root.resolve("b/cover.jpg"), moved, true);
+        thumbnails.onPathRemoved(root.resolve("a"), true);
+
+        assertTrue(Files.exists(thumbnail));
+    }
+
+    private static Path thumbnailsDir(Path root) {
+        return root.resolve(MindRefRunner.METADATA_DIR_NAME).resolve(MindRefThumbnails.THUMBNAILS_DIR_NAME);
+    }
+
+    private static Path cached(Path root, MindRefFileData image) throws IOException {
+        Path thumbnail = MindRefThumbnails.thumbnailPath(thumbnailsDir(root), image);
+        Files.createDirectories(thumbnail.getParent());
+        Files.write(thumbnail, new byte[]{1, 2, 3});
+        return thumbnail;
+    }
+}
@@ -0,0 +1,74 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class MindRefUtilsTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private MindRefUtils utils;
+    private final List<String> notified = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        utils = new MindRefUtils("content://notes/tree/primary%3ANotes", tempFolder.getRoot().getPath(), null,
+                MoreExecutors.newDirectExecutorService(), MoreExecutors.directExecutor(), false);
+        utils.setMindRefCallback(new MindRefUtils.MindRefUtilsCallback() {
+            @Override
+            public void onComplete(int key) {
+                notified.add("complete " + key);
+            }
+
+            @Override
+            public void onFailure(int key) {
+                notified.add("failure " + key);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    @After
+    public void tearDown() {
+        utils.close();
+    }
+
+    @Test
+    public void notifyCallback_completesWithKey() {
+        utils.notifyCallback("copyToAppStorage", 7, Futures.immediateFuture(new MindRefStats(7, 1, 1, 0, 10, 5)));
+
+        assertTrue(utils.haveMindRefUtilsCallback);
+        assertEquals(Collections.singletonList("complete 7"), notified);
+    }
+
+    @Test
+    public void notifyCallback_reportsFailedItemsAsFailure() {
+        List<MindRefStats.Failure> failures = Collections.singletonList(
+                new MindRefStats.Failure("a/note.md", "provider gone", new IOException("provider gone")));
+
+        utils.notifyCallback("copyToAppStorage", 7, Futures.immediateFuture(new MindRefStats(7, 2, 1, 0, 10, 5, failures)));
+
+        assertEquals(Collections.singletonList("failure 7"), notified);
+    }
+
+    @Test
+    public void notifyCallback_reportsFailedFuture() {
+        utils.notifyCallback("copyToExternalStorage", 3, Futures.immediateFailedFuture(new IOException("no space")));
+
+        assertEquals(Collections.singletonList("failure 3"), notified);
+    }
+}
@@ -0,0 +1,46 @@
+package org.estasney.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MindRefWindowInsetsTest {
+
+    private final List<MindRefWindowInsets.SafeArea> changes = new ArrayList<>();
+    private final MindRefWindowInsets.SafeAreaListener listener = changes::add;
+
+    @After
+    public void removeListener() {
+        MindRefWindowInsets.removeSafeAreaListener(listener);
+    }
+
+    @Test
+    public void updateSafeArea_publishesChange() {
+        MindRefWindowInsets.addSafeAreaListener(listener);
+        int version = MindRefWindowInsets.getSafeAreaVersion();
+
+        assertTrue(MindRefWindowInsets.updateSafeArea(1, 48, 2, 96));
+
+        assertEquals(new MindRefWindowInsets.SafeArea(1, 48, 2, 96), MindRefWindowInsets.getSafeArea());
+        assertEquals(version + 1, MindRefWindowInsets.getSafeAreaVersion());
+        assertEquals(1, changes.size());
+    }
+
+    @Test
+    public void updateSafeArea_ignoresRepeatedInsets() {
+        MindRefWindowInsets.updateSafeArea(0, 24, 0, 48);
+        MindRefWindowInsets.addSafeAreaListener(listener);
+        int version = MindRefWindowInsets.getSafeAreaVersion();
+
+        assertFalse(MindRefWindowInsets.updateSafeArea(0, 24, 0, 48));
+
+        assertEquals(version, MindRefWindowInsets.getSafeAreaVersion());
+        assertTrue(changes.isEmpty());
+    }
+}